@@ -0,0 +1,111 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Random;
+import lapse.io.TraceParser;
+import lapse.io.TraceWriter;
+import lapse.model.LineStore;
+
+/**
+ * Generated drawings for the benchmarks. The same size always gives the
+ * same drawing, so results of different versions can be compared.
+ * 
+ * @author Burhanuddin
+ */
+public class BenchmarkData {
+    
+    public static final long SEED = 42;
+    public static final int WIDTH = 4000;
+    public static final int HEIGHT = 3000;
+    
+    private static final String[] TAGS = {"Hash", "AppleTree", "House", "Window", "Door", "Sun", "Cloud", "Road"};
+    
+    private BenchmarkData() {
+    }
+    
+    /**
+     * Return a drawing of short strokes drawn one after another, where runs
+     * of consecutive lines share a tag and some lines have no tag.
+     * @param lineCount
+     * @return lines sorted by time
+     */
+    public static LineStore lines(int lineCount) {
+        return lines(lineCount, SEED);
+    }
+    
+    /**
+     * Return a drawing like {@link #lines(int)} from another seed, e.g. for
+     * another participant's drawing.
+     * @param lineCount
+     * @param seed
+     * @return lines sorted by time
+     */
+    public static LineStore lines(int lineCount, long seed) {
+        Random random = new Random(seed);
+        LineStore lines = new LineStore(lineCount);
+        int x = WIDTH / 2, y = HEIGHT / 2;
+        long time = 0;
+        String tag = "";
+        int runLeft = 0;
+        for (int i = 0; i < lineCount; i++) {
+            if (runLeft-- <= 0) {
+                runLeft = 1 + random.nextInt(40);
+                tag = (random.nextInt(5) == 0) ? "" : TAGS[random.nextInt(TAGS.length)];
+                x = random.nextInt(WIDTH);          // lift the pen
+                y = random.nextInt(HEIGHT);
+            }
+            int endX = clamp(x + random.nextInt(61) - 30, WIDTH);
+            int endY = clamp(y + random.nextInt(61) - 30, HEIGHT);
+            long duration = 50 + random.nextInt(400);
+            lines.add(i + 1, x, y, endX, endY, time, time + duration, tag);
+            time += duration + random.nextInt(200);
+            x = endX;
+            y = endY;
+        }
+        return lines;
+    }
+    
+    /**
+     * Write {@link #lines(int)} to a temporary TRACE file that is deleted
+     * when the benchmark exits.
+     * @param lineCount
+     * @return file
+     * @throws IOException 
+     */
+    public static File traceFile(int lineCount) throws IOException {
+        File file = File.createTempFile("lapse-bench-" + lineCount + "-", ".txt");
+        file.deleteOnExit();
+        TraceWriter.write(file, Collections.singletonList(TraceParser.LINE_SECTION), lines(lineCount),
+                Collections.emptyList());
+        return file;
+    }
+    
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(max, value));
+    }
+}
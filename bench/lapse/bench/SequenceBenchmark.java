@@ -0,0 +1,164 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javafx.scene.shape.CubicCurve;
+import lapse.model.LineStore;
+import lapse.model.SequenceBuilder;
+import lapse.model.SequenceGeometry;
+import lapse.shape.Arrow;
+import lapse.util.CurveKernel;
+import lapse.util.GT;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Building the line sequence and the drawing sequence, and the curve and
+ * arrow geometry behind them.
+ * 
+ * @author Burhanuddin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx6g"})
+public class SequenceBenchmark {
+    
+    @Param({"1000", "100000", "1000000"})
+    public int lines;
+    
+    private LineStore store;
+    private List<CubicCurve> curves;
+    private List<Arrow> arrows;
+    private double[] points;
+    private double[] controls;
+    private double[] arrowPoses;
+    
+    @Setup
+    public void setUp() {
+        store = BenchmarkData.lines(lines);
+        points = new double[lines * 2];
+        for (int i = 0; i < lines; i++) {
+            points[i * 2] = store.getStartX(i);
+            points[i * 2 + 1] = store.getStartY(i);
+        }
+        controls = new double[(lines - 1) * 4];
+        arrowPoses = new double[(lines - 1) * 3];
+        CurveKernel.computeControls(points, lines, 0, lines - 1, controls);
+        curves = new ArrayList<>(lines);
+        arrows = new ArrayList<>(lines);
+        for (int i = 0; i < lines; i++) {
+            CubicCurve curve = new CubicCurve(store.getStartX(i), store.getStartY(i),
+                    store.getStartX(i), store.getStartY(i), store.getEndX(i), store.getEndY(i),
+                    store.getEndX(i), store.getEndY(i));
+            curves.add(curve);
+            arrows.add(new Arrow(curve, 0.5f));
+        }
+    }
+    
+    /**
+     * Curves through the middle of every line (makeCurves over one curve per
+     * line).
+     * @return sequence
+     */
+    @Benchmark
+    public SequenceGeometry lineSequence() {
+        return SequenceBuilder.lineSequence(store);
+    }
+    
+    /**
+     * Curves through the middle of every run of lines with the same tag.
+     * @return sequence
+     */
+    @Benchmark
+    public SequenceGeometry drawingSequence() {
+        return SequenceBuilder.drawingSequence(store);
+    }
+    
+    @Benchmark
+    public void angle(Blackhole blackhole) {
+        for (int i = 0; i < curves.size() - 1; i++) {
+            blackhole.consume(GT.angle(curves.get(i), curves.get(i + 1)));
+        }
+    }
+    
+    @Benchmark
+    public void scale() {
+        for (CubicCurve curve : curves) {
+            GT.scale(curve, 0.1);
+        }
+    }
+    
+    @Benchmark
+    public void rotate() {
+        for (CubicCurve curve : curves) {
+            GT.rotate(curve, 0.3, true);
+            GT.rotate(curve, -0.3, false);
+        }
+    }
+    
+    @Benchmark
+    public void arrowUpdate() {
+        for (Arrow arrow : arrows) {
+            arrow.update();
+        }
+    }
+    
+    /**
+     * Control points of one curve per line over packed arrays, the kernel
+     * behind angle, scale and rotate.
+     * @return control points
+     */
+    @Benchmark
+    public double[] kernelControls() {
+        CurveKernel.computeControls(points, lines, 0, lines - 1, controls);
+        return controls;
+    }
+    
+    /**
+     * Arrow poses of one curve per line over packed arrays, the kernel
+     * behind arrowUpdate.
+     * @return arrow poses
+     */
+    @Benchmark
+    public double[] kernelArrows() {
+        CurveKernel.computeArrows(points, controls, 0, lines - 1, 0.5, arrowPoses);
+        return arrowPoses;
+    }
+}
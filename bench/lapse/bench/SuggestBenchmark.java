@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.bench;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import lapse.model.LineStore;
+import lapse.model.TagSuggester;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Learning tags from tagged drawings and suggesting tags for every line of
+ * another drawing.
+ * 
+ * @author Burhanuddin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx6g"})
+public class SuggestBenchmark {
+    
+    private static final int TRAINING_FILES = 3;
+    
+    @Param({"1000", "100000", "1000000"})
+    public int lines;
+    
+    private List<LineStore> training;
+    private TagSuggester suggester;
+    private LineStore store;
+    private int[] indices;
+    
+    @Setup
+    public void setUp() {
+        LineStore[] files = new LineStore[TRAINING_FILES];
+        for (int f = 0; f < TRAINING_FILES; f++) {
+            files[f] = BenchmarkData.lines(lines, BenchmarkData.SEED + 1 + f);
+        }
+        training = Arrays.asList(files);
+        suggester = new TagSuggester(training);
+        store = BenchmarkData.lines(lines);
+        indices = IntStream.range(0, lines).toArray();
+    }
+    
+    /**
+     * Learn from the tagged drawings.
+     * @return suggester
+     */
+    @Benchmark
+    public TagSuggester learn() {
+        return new TagSuggester(training);
+    }
+    
+    /**
+     * Suggest tags for every line of the drawing.
+     * @return suggestions
+     */
+    @Benchmark
+    public TagSuggester.Suggestions suggest() {
+        return suggester.suggest(store, indices);
+    }
+}
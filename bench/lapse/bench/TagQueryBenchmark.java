@@ -0,0 +1,161 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javafx.geometry.Rectangle2D;
+import lapse.model.LineStore;
+import lapse.model.SpatialIndex;
+import lapse.model.TaggedArea;
+import lapse.model.TaggedPolygon;
+import lapse.model.TaggedRectangle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Finding the lines inside the tagged rectangles and lasso polygons.
+ * 
+ * @author Burhanuddin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx6g"})
+public class TagQueryBenchmark {
+    
+    private static final int RECTANGLE_COUNT = 16;
+    private static final int LASSO_VERTICES = 400;
+    
+    @Param({"1000", "100000", "1000000"})
+    public int lines;
+    
+    private LineStore store;
+    private SpatialIndex spatialIndex;
+    private List<TaggedRectangle> taggedRectangles;
+    private List<TaggedPolygon> taggedPolygons;
+    
+    @Setup
+    public void setUp() {
+        store = BenchmarkData.lines(lines);
+        spatialIndex = new SpatialIndex(store);
+        taggedRectangles = new ArrayList<>();
+        Random random = new Random(BenchmarkData.SEED);
+        for (int i = 0; i < RECTANGLE_COUNT; i++) {
+            double width = 100 + random.nextInt(600);
+            double height = 100 + random.nextInt(600);
+            double x = random.nextInt(BenchmarkData.WIDTH - (int) width);
+            double y = random.nextInt(BenchmarkData.HEIGHT - (int) height);
+            taggedRectangles.add(new TaggedRectangle(new Rectangle2D(x, y, width, height), "Bench" + i));
+        }
+        // a wobbly ellipse inside each rectangle, like a freehand lasso
+        taggedPolygons = new ArrayList<>();
+        for (TaggedRectangle taggedRectangle : taggedRectangles) {
+            Rectangle2D rect = taggedRectangle.rect;
+            double[] points = new double[2 * LASSO_VERTICES];
+            for (int i = 0; i < LASSO_VERTICES; i++) {
+                double angle = 2 * Math.PI * i / LASSO_VERTICES;
+                double radius = 0.4 + 0.08 * Math.sin(5 * angle) + 0.01 * random.nextDouble();
+                points[2 * i] = rect.getMinX() + rect.getWidth() * (0.5 + radius * Math.cos(angle));
+                points[2 * i + 1] = rect.getMinY() + rect.getHeight() * (0.5 + radius * Math.sin(angle));
+            }
+            taggedPolygons.add(new TaggedPolygon(points, taggedRectangle.tag));
+        }
+        store.clearTags();      // the queries only read, so once is enough
+    }
+    
+    /**
+     * Count the lines contained in every rectangle.
+     * @return number of lines found
+     */
+    @Benchmark
+    public int queryContained() {
+        int[] count = new int[1];
+        for (TaggedRectangle taggedRectangle : taggedRectangles) {
+            spatialIndex.queryContained(taggedRectangle.rect, (index) -> count[0]++);
+        }
+        return count[0];
+    }
+    
+    /**
+     * Find the lines contained in every lasso polygon.
+     * @return number of lines found
+     */
+    @Benchmark
+    public int polygonContained() {
+        int count = 0;
+        for (TaggedPolygon taggedPolygon : taggedPolygons) {
+            count += taggedPolygon.untaggedLines(store, spatialIndex).length;
+        }
+        return count;
+    }
+    
+    /**
+     * Tag the untagged lines contained in every rectangle, as done when the
+     * tagged rectangles are saved.
+     * @param tagging drawing whose tags are cleared before every call
+     * @return tagged lines per rectangle
+     */
+    @Benchmark
+    public List<int[]> tagLines(Tagging tagging) {
+        return TaggedArea.tagLines(taggedRectangles, tagging.store, tagging.spatialIndex);
+    }
+    
+    /**
+     * A drawing of its own for {@link #tagLines(Tagging)}, which changes
+     * the tags. Its tags are cleared before every call, which would distort
+     * the timing of the short read-only queries.
+     */
+    @State(Scope.Benchmark)
+    public static class Tagging {
+        
+        private LineStore store;
+        private SpatialIndex spatialIndex;
+        
+        @Setup
+        public void setUp(TagQueryBenchmark benchmark) {
+            store = BenchmarkData.lines(benchmark.lines);
+            spatialIndex = new SpatialIndex(store);
+        }
+        
+        @Setup(Level.Invocation)
+        public void clearTags() {
+            store.clearTags();
+        }
+    }
+}
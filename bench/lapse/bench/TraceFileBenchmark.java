@@ -0,0 +1,95 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import lapse.io.TraceFile;
+import lapse.io.TraceFormatException;
+import lapse.io.TraceParser;
+import lapse.io.TraceWriter;
+import lapse.model.LineStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Opening and saving a TRACE file.
+ * 
+ * @author Burhanuddin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx6g"})
+public class TraceFileBenchmark {
+    
+    @Param({"1000", "100000", "1000000"})
+    public int lines;
+    
+    private File input;
+    private File output;
+    private TraceFile traceFile;
+    
+    @Setup
+    public void setUp() throws IOException, TraceFormatException {
+        input = BenchmarkData.traceFile(lines);
+        output = File.createTempFile("lapse-bench-save-", ".txt");
+        output.deleteOnExit();
+        traceFile = TraceParser.parse(input);
+    }
+    
+    /**
+     * Parse every line of the file, as done when a file is opened.
+     * @return lines
+     * @throws IOException
+     * @throws TraceFormatException 
+     */
+    @Benchmark
+    public LineStore parse() throws IOException, TraceFormatException {
+        return TraceParser.parse(input).getLines();
+    }
+    
+    /**
+     * Write every line back to a file, as done when the tags are saved.
+     * @return written file
+     * @throws IOException 
+     */
+    @Benchmark
+    public File save() throws IOException {
+        TraceWriter.write(output, traceFile.getBeforeLines(), traceFile.getLines(), traceFile.getAfterLines());
+        return output;
+    }
+}
@@ -23,13 +23,19 @@
  */
 package lapse;
 
-import lapse.model.TaggedLine;
-import lapse.model.TaggedRectangle;
+import lapse.batch.BatchTagger;
+import lapse.batch.TraceGenerator;
+import lapse.model.LineStore;
+import lapse.model.SpatialIndex;
+import lapse.model.TagHistory;
+import lapse.model.TagRegistry;
+import lapse.model.TimeIndex;
 import lapse.util.ExceptionFormatter;
 import lapse.view.RootLayoutController;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.Arrays;
 import javafx.application.Application;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -52,13 +58,16 @@ public class MainApp extends Application {
     public static final String TITLE = "LApSE";
     
     private Stage primaryStage;
+    private RootLayoutController rootLayoutController;
     
     private final ObservableList<String> beforeLines;
     private final ObservableList<String> afterLines;
-    private final ObservableList<TaggedLine> taggedLines;
+    private LineStore lineStore;
+    private SpatialIndex spatialIndex;
+    private TimeIndex timeIndex;
     private final ObservableMap<String, ObservableList<String>> tags;
     private final ObservableList<String> drawingTypeList;
-    private final ObservableList<TaggedRectangle> taggedRectangles;
+    private TagHistory tagHistory;
     
     /**
      * Constructor.
@@ -66,10 +75,12 @@ public class MainApp extends Application {
     public MainApp() {
         beforeLines = FXCollections.observableArrayList();
         afterLines = FXCollections.observableArrayList();
-        taggedLines = FXCollections.observableArrayList();
+        lineStore = new LineStore();
+        spatialIndex = new SpatialIndex();
+        timeIndex = new TimeIndex();
+        tagHistory = new TagHistory(lineStore);
         tags = FXCollections.observableHashMap();
         drawingTypeList = FXCollections.observableArrayList();
-        taggedRectangles = FXCollections.observableArrayList();
         loadTags("data/tags.txt");
     }
     
@@ -80,8 +91,10 @@ public class MainApp extends Application {
     public void clearData() {
         beforeLines.clear();
         afterLines.clear();
-        taggedLines.clear();
-        taggedRectangles.clear();
+        lineStore = new LineStore();
+        spatialIndex = new SpatialIndex();
+        timeIndex = new TimeIndex();
+        tagHistory = new TagHistory(lineStore);
     }
     
     /**
@@ -101,11 +114,63 @@ public class MainApp extends Application {
     }
     
     /**
-     * Return the list of line coordinates.
-     * @return taggedLines
+     * Return the store of line coordinates.
+     * @return lineStore
      */
-    public ObservableList<TaggedLine> getTaggedLines() {
-        return taggedLines;
+    public LineStore getLineStore() {
+        return lineStore;
+    }
+    
+    /**
+     * Replace the store of line coordinates, starting a new undo history.
+     * Usually called after loading a new file.
+     * @param lineStore 
+     */
+    public void setLineStore(LineStore lineStore) {
+        this.lineStore = lineStore;
+        this.tagHistory = new TagHistory(lineStore);
+    }
+    
+    /**
+     * Return the undo history of the tags in the line store.
+     * @return tagHistory
+     */
+    public TagHistory getTagHistory() {
+        return tagHistory;
+    }
+    
+    /**
+     * Return the spatial index over the line store.
+     * @return spatialIndex
+     */
+    public SpatialIndex getSpatialIndex() {
+        return spatialIndex;
+    }
+    
+    /**
+     * Replace the spatial index. Must be called whenever the lines in the
+     * line store are replaced or reordered.
+     * @param spatialIndex 
+     */
+    public void setSpatialIndex(SpatialIndex spatialIndex) {
+        this.spatialIndex = spatialIndex;
+    }
+    
+    /**
+     * Return the time index over the line store.
+     * @return timeIndex
+     */
+    public TimeIndex getTimeIndex() {
+        return timeIndex;
+    }
+    
+    /**
+     * Replace the time index. Must be called whenever the lines in the line
+     * store are replaced or reordered.
+     * @param timeIndex 
+     */
+    public void setTimeIndex(TimeIndex timeIndex) {
+        this.timeIndex = timeIndex;
     }
     
     /**
@@ -125,14 +190,6 @@ public class MainApp extends Application {
         return drawingTypeList;
     }
     
-    /**
-     * Return a list of tagged rectangles.
-     * @return taggedRectangles
-     */
-    public ObservableList<TaggedRectangle> getTaggedRectangles() {
-        return taggedRectangles;
-    }
-    
     /**
      * Load all available tagging label from specified file.
      * @param fileName 
@@ -151,6 +208,7 @@ public class MainApp extends Application {
                 if (currentType != null && !temp.isEmpty()) {
                     ObservableList<String> tagList = tags.get(currentType);
                     tagList.add(temp);
+                    TagRegistry.getDefault().code(temp);     // listed tags get the first codes
                 }
             }
         } catch (IOException ex) {
@@ -165,6 +223,16 @@ public class MainApp extends Application {
         initRootLayout();
     }
     
+    /**
+     * Write any tag journal into its file before the program exits.
+     */
+    @Override
+    public void stop() {
+        if (rootLayoutController != null) {
+            rootLayoutController.compactJournal();
+        }
+    }
+    
     /**
      * Initialize root layout.
      */
@@ -180,8 +248,8 @@ public class MainApp extends Application {
             primaryStage.setMaximized(true);
             primaryStage.setScene(scene);
             
-            RootLayoutController controller = loader.getController();
-            controller.setMainApp(this);
+            rootLayoutController = loader.getController();
+            rootLayoutController.setMainApp(this);
             
             primaryStage.show();
         } catch (IOException ex) {
@@ -198,9 +266,18 @@ public class MainApp extends Application {
     }
 
     /**
+     * Start the program, or run without any window: the batch mode when the
+     * first argument is {@value lapse.batch.BatchTagger#OPTION}, the TRACE
+     * generator when it is {@value lapse.batch.TraceGenerator#OPTION}.
      * @param args the command line arguments
      */
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals(BatchTagger.OPTION)) {
+            System.exit(BatchTagger.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
+        if (args.length > 0 && args[0].equals(TraceGenerator.OPTION)) {
+            System.exit(TraceGenerator.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
         launch(args);
     }
     
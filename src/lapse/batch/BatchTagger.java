@@ -0,0 +1,307 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.batch;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import javafx.geometry.Point2D;
+import lapse.io.TagJournal;
+import lapse.io.TraceFile;
+import lapse.io.TraceFormatException;
+import lapse.io.TraceParser;
+import lapse.io.TraceWriter;
+import lapse.model.LineStore;
+import lapse.model.SequenceBuilder;
+import lapse.model.SpatialIndex;
+import lapse.model.TaggedArea;
+import lapse.util.ExceptionFormatter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Headless batch mode. Processes every TRACE file (*.txt) in a directory
+ * concurrently without any window: the lines are sorted by time, the
+ * journal of the file is applied, the rectangles and polygons of an optional
+ * rectangle tag file are applied like selections in the program, and the
+ * drawing sequence is computed. For each file the tagged TRACE file and its
+ * drawing sequence are written to the output directory, together with a
+ * summary of all files.
+ * 
+ * @author Burhanuddin
+ */
+public class BatchTagger {
+    
+    private static final Logger logger = LogManager.getLogger();
+    
+    public static final String OPTION = "--batch";
+    public static final String OUTPUT_DIRECTORY = "lapse-batch";
+    public static final String SUMMARY_FILE = "summary.csv";
+    public static final String SEQUENCE_SUFFIX = ".sequence.csv";
+    
+    private static final String USAGE = "Usage: " + OPTION
+            + " <directory> [--tags <rectangle tag file>] [--out <directory>] [--threads <count>]";
+    
+    private final File inputDirectory;
+    private final File outputDirectory;
+    private final List<TaggedArea> taggedAreas;
+    private final int threads;
+    
+    /**
+     * Constructs a batch run.
+     * @param inputDirectory directory of TRACE files
+     * @param outputDirectory directory for the results
+     * @param taggedAreas rectangles and polygons to apply to every file
+     * @param threads number of files processed at the same time
+     */
+    public BatchTagger(File inputDirectory, File outputDirectory, List<TaggedArea> taggedAreas,
+            int threads) {
+        this.inputDirectory = inputDirectory;
+        this.outputDirectory = outputDirectory;
+        this.taggedAreas = taggedAreas;
+        this.threads = threads;
+    }
+    
+    /**
+     * Run the batch mode with the command line arguments following
+     * {@link #OPTION}.
+     * @param args
+     * @return exit code: 0 if every file was processed, 1 if some failed,
+     *         2 if the arguments are wrong
+     */
+    public static int run(String[] args) {
+        File inputDirectory = null, outputDirectory = null, tagFile = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--tags":
+                        tagFile = new File(args[++i]);
+                        break;
+                    case "--out":
+                        outputDirectory = new File(args[++i]);
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    default:
+                        if (inputDirectory != null || args[i].startsWith("--")) {
+                            throw new IllegalArgumentException("Unexpected argument " + args[i]);
+                        }
+                        inputDirectory = new File(args[i]);
+                }
+            }
+            if (inputDirectory == null || !inputDirectory.isDirectory()) {
+                throw new IllegalArgumentException("Not a directory: " + inputDirectory);
+            }
+            if (threads < 1) {
+                throw new IllegalArgumentException("Thread count must be at least 1");
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException ex) {
+            System.err.println((ex instanceof ArrayIndexOutOfBoundsException) ? "Missing value" : ex.getMessage());
+            System.err.println(USAGE);
+            return 2;
+        }
+        if (outputDirectory == null) {
+            outputDirectory = new File(inputDirectory, OUTPUT_DIRECTORY);
+        }
+        if (outputDirectory.getAbsoluteFile().equals(inputDirectory.getAbsoluteFile())) {
+            System.err.println("The output directory must differ from the input directory");
+            return 2;
+        }
+        
+        try {
+            List<TaggedArea> taggedAreas = (tagFile == null)
+                    ? Collections.emptyList() : RectangleTagFile.read(tagFile);
+            BatchTagger batch = new BatchTagger(inputDirectory, outputDirectory, taggedAreas, threads);
+            return batch.run() ? 0 : 1;
+        } catch (IOException | InterruptedException ex) {
+            System.err.println(ex.getMessage());
+            logger.error(ExceptionFormatter.format(ex));
+            return 1;
+        }
+    }
+    
+    /**
+     * Process every file of the input directory.
+     * @return true if every file was processed
+     * @throws IOException if the output directory or the summary cannot be
+     *         written
+     * @throws InterruptedException 
+     */
+    public boolean run() throws IOException, InterruptedException {
+        File[] files = inputDirectory.listFiles((file) -> file.isFile() && file.getName().endsWith(".txt"));
+        Arrays.sort(files);
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            throw new IOException("Cannot create " + outputDirectory);
+        }
+        
+        AtomicInteger done = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Result>> futures = new ArrayList<>();
+        try {
+            for (File file : files) {
+                futures.add(executor.submit(() -> {
+                    Result result = process(file);
+                    System.out.println("[" + done.incrementAndGet() + "/" + files.length + "] " + result);
+                    return result;
+                }));
+            }
+            
+            boolean success = true;
+            try (PrintWriter writer = new PrintWriter(new BufferedWriter(
+                    new FileWriter(new File(outputDirectory, SUMMARY_FILE))))) {
+                writer.println("FILE,STATUS,LINES,TAGGED_LINES,NEWLY_TAGGED_LINES,RUNS,MILLIS,MESSAGE");
+                for (Future<Result> future : futures) {
+                    Result result = future.get();
+                    success &= result.error == null;
+                    writer.println(result.toCsv());
+                }
+                if (writer.checkError()) {
+                    throw new IOException("Cannot write " + SUMMARY_FILE);
+                }
+            } catch (ExecutionException ex) {
+                throw new IOException(ex.getCause());     // process() catches everything it expects
+            }
+            return success;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    /**
+     * Process one TRACE file.
+     * @param file
+     * @return result
+     */
+    private Result process(File file) {
+        long start = System.nanoTime();
+        Result result = new Result(file.getName());
+        try {
+            TraceFile traceFile = TraceParser.parse(file);
+            LineStore lines = traceFile.getLines();
+            if (lines.isEmpty()) {
+                result.error = "no lines found";
+                result.millis = (System.nanoTime() - start) / 1000000;
+                return result;
+            }
+            lines.sortByTimeStart();
+            SpatialIndex spatialIndex = new SpatialIndex(lines);
+            try {
+                TagJournal.replay(file, lines);
+            } catch (IOException ex) {
+                result.message = "journal not applied: " + ex.getMessage();
+            }
+            
+            for (int[] indices : TaggedArea.tagLines(taggedAreas, lines, spatialIndex)) {
+                result.newlyTagged += indices.length;
+            }
+            TraceWriter.write(new File(outputDirectory, file.getName()), traceFile.getBeforeLines(), lines,
+                    traceFile.getAfterLines());
+            result.runs = writeSequence(new File(outputDirectory, file.getName() + SEQUENCE_SUFFIX), lines);
+            
+            result.lines = lines.size();
+            for (int i = 0; i < lines.size(); i++) {
+                if (lines.isTagged(i)) {
+                    result.tagged++;
+                }
+            }
+        } catch (TraceFormatException | IOException ex) {
+            result.error = ex.getMessage();
+        } catch (RuntimeException ex) {
+            logger.error(ExceptionFormatter.format(ex));
+            result.error = ex.toString();
+        }
+        result.millis = (System.nanoTime() - start) / 1000000;
+        return result;
+    }
+    
+    /**
+     * Write the drawing sequence: one row per run of consecutive lines with
+     * the same tag, at the mid point of the run.
+     * @param file
+     * @param lines sorted by time
+     * @return number of runs
+     * @throws IOException 
+     */
+    private static int writeSequence(File file, LineStore lines) throws IOException {
+        int[] runStarts = SequenceBuilder.runStarts(lines);
+        try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(file)))) {
+            writer.println("RUN,TAG,FIRST_ID,LAST_ID,LINES,TIME_START,TIME_END,X,Y");
+            for (int r = 0; r < runStarts.length - 1; r++) {
+                int from = runStarts[r], to = runStarts[r + 1];
+                Point2D midPoint = SequenceBuilder.calculateMidPointOfLineGroup(lines, from, to);
+                writer.println((r + 1) + "," + lines.getTag(from) + "," + lines.getId(from) + ","
+                        + lines.getId(to - 1) + "," + (to - from) + "," + lines.getTimeStart(from) + ","
+                        + lines.getTimeEnd(to - 1) + "," + midPoint.getX() + "," + midPoint.getY());
+            }
+            if (writer.checkError()) {
+                throw new IOException("Cannot write " + file);
+            }
+        }
+        return runStarts.length - 1;
+    }
+    
+    /**
+     * Outcome of processing one file.
+     */
+    private static class Result {
+        
+        private final String fileName;
+        private int lines, tagged, newlyTagged, runs;
+        private long millis;
+        private String message = "";
+        private String error;
+        
+        Result(String fileName) {
+            this.fileName = fileName;
+        }
+        
+        String toCsv() {
+            String text = (error != null) ? error : message;
+            return fileName + "," + ((error != null) ? "FAILED" : "OK") + "," + lines + "," + tagged + ","
+                    + newlyTagged + "," + runs + "," + millis + ",\"" + text.replace("\"", "\"\"") + "\"";
+        }
+        
+        @Override
+        public String toString() {
+            if (error != null) {
+                return fileName + ": FAILED " + error;
+            }
+            return fileName + ": " + lines + " lines, " + tagged + " tagged (" + newlyTagged + " new), "
+                    + runs + " runs" + (message.isEmpty() ? "" : ", " + message);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.batch;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import javafx.geometry.Rectangle2D;
+import lapse.model.TaggedArea;
+import lapse.model.TaggedPolygon;
+import lapse.model.TaggedRectangle;
+
+/**
+ * Reader for rectangle tag definition files used by the batch mode. Each
+ * row defines one tagged rectangle in drawing coordinates with the format
+ * <code>TAG,X,Y,WIDTH,HEIGHT</code>, or one tagged polygon with the format
+ * <code>TAG,POLYGON,X1,Y1,X2,Y2,X3,Y3...</code>. Empty rows and rows
+ * starting with '#' are ignored. Areas are applied in file order.
+ * 
+ * @author Burhanuddin
+ */
+public class RectangleTagFile {
+    
+    public static final String POLYGON = "POLYGON";
+    
+    private RectangleTagFile() {
+    }
+    
+    /**
+     * Read the tagged rectangles and polygons from the specified file.
+     * @param file
+     * @return taggedAreas
+     * @throws IOException if the file cannot be read or a row is malformed
+     */
+    public static List<TaggedArea> read(File file) throws IOException {
+        List<TaggedArea> taggedAreas = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String temp;
+            int lineNumber = 0;
+            while ((temp = reader.readLine()) != null) {
+                lineNumber++;
+                temp = temp.trim();
+                if (temp.isEmpty() || temp.startsWith("#")) {
+                    continue;
+                }
+                String[] tokens = temp.split(",");
+                boolean polygon = tokens.length > 1 && tokens[1].trim().equalsIgnoreCase(POLYGON);
+                if (tokens[0].trim().isEmpty() || (!polygon && tokens.length != 5)) {
+                    throw new IOException(file.getName() + " line " + lineNumber
+                            + ": expected TAG,X,Y,WIDTH,HEIGHT or TAG,POLYGON,X1,Y1,X2,Y2,X3,Y3...");
+                }
+                try {
+                    if (polygon) {
+                        double[] points = new double[tokens.length - 2];
+                        for (int i = 0; i < points.length; i++) {
+                            points[i] = Double.parseDouble(tokens[i + 2].trim());
+                        }
+                        taggedAreas.add(new TaggedPolygon(points, tokens[0].trim()));
+                    } else {
+                        Rectangle2D rect = new Rectangle2D(Double.parseDouble(tokens[1].trim()),
+                                Double.parseDouble(tokens[2].trim()), Double.parseDouble(tokens[3].trim()),
+                                Double.parseDouble(tokens[4].trim()));
+                        taggedAreas.add(new TaggedRectangle(rect, tokens[0].trim()));
+                    }
+                } catch (IllegalArgumentException ex) {     // also NumberFormatException
+                    throw new IOException(file.getName() + " line " + lineNumber + ": " + ex.getMessage());
+                }
+            }
+        }
+        return taggedAreas;
+    }
+}
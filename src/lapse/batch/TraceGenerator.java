@@ -0,0 +1,316 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.batch;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javafx.geometry.Rectangle2D;
+import lapse.io.TraceParser;
+import lapse.model.TaggedRectangle;
+
+/**
+ * Writes synthetic TRACE files for scale testing. The drawing is made of
+ * strokes of connected lines with pauses between them. A tagged stroke is
+ * drawn inside the region of its tag, one region per tag of a category in
+ * the tags file, and neighbouring regions overlap by a configurable amount.
+ * Lines are written as they are generated, so the file size is not limited
+ * by memory, and the same settings and seed always give the same file.
+ * 
+ * @author Burhanuddin
+ */
+public class TraceGenerator {
+    
+    public static final String OPTION = "--generate";
+    
+    private static final String USAGE = "Usage: " + OPTION + " <output file> [--lines <count>] [--seed <n>]"
+            + " [--width <px>] [--height <px>] [--stroke-lines <mean lines per stroke>]"
+            + " [--segment <max line length>] [--gap <mean ms between strokes>] [--tag-density <0..1>]"
+            + " [--overlap <0..1>] [--tags <tags file>] [--category <name>] [--rectangles <file>]";
+    
+    private long lineCount = 100000;
+    private long seed = 1;
+    private int width = 2000;
+    private int height = 1500;
+    private int strokeLines = 12;
+    private int segment = 40;
+    private int gap = 400;
+    private double tagDensity = 0.8;
+    private double overlap = 0.2;
+    private List<String> tags = new ArrayList<>();
+    
+    private List<TaggedRectangle> regions;
+    
+    /**
+     * Run the generator with the command line arguments following
+     * {@link #OPTION}.
+     * @param args
+     * @return exit code: 0 on success, 1 if a file cannot be written, 2 if
+     *         the arguments are wrong
+     */
+    public static int run(String[] args) {
+        TraceGenerator generator = new TraceGenerator();
+        File output = null, tagsFile = new File("data/tags.txt"), rectanglesFile = null;
+        String category = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--lines":
+                        generator.lineCount = Long.parseLong(args[++i]);
+                        break;
+                    case "--seed":
+                        generator.seed = Long.parseLong(args[++i]);
+                        break;
+                    case "--width":
+                        generator.width = Integer.parseInt(args[++i]);
+                        break;
+                    case "--height":
+                        generator.height = Integer.parseInt(args[++i]);
+                        break;
+                    case "--stroke-lines":
+                        generator.strokeLines = Integer.parseInt(args[++i]);
+                        break;
+                    case "--segment":
+                        generator.segment = Integer.parseInt(args[++i]);
+                        break;
+                    case "--gap":
+                        generator.gap = Integer.parseInt(args[++i]);
+                        break;
+                    case "--tag-density":
+                        generator.tagDensity = Double.parseDouble(args[++i]);
+                        break;
+                    case "--overlap":
+                        generator.overlap = Double.parseDouble(args[++i]);
+                        break;
+                    case "--tags":
+                        tagsFile = new File(args[++i]);
+                        break;
+                    case "--category":
+                        category = args[++i];
+                        break;
+                    case "--rectangles":
+                        rectanglesFile = new File(args[++i]);
+                        break;
+                    default:
+                        if (output != null || args[i].startsWith("--")) {
+                            throw new IllegalArgumentException("Unexpected argument " + args[i]);
+                        }
+                        output = new File(args[i]);
+                }
+            }
+            if (output == null) {
+                throw new IllegalArgumentException("No output file");
+            }
+            generator.validate();
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException ex) {
+            System.err.println((ex instanceof ArrayIndexOutOfBoundsException) ? "Missing value" : ex.getMessage());
+            System.err.println(USAGE);
+            return 2;
+        }
+        
+        try {
+            generator.tags = readCategory(tagsFile, category);
+            if (generator.tags.isEmpty()) {
+                System.err.println("No tags found in " + tagsFile);
+                return 2;
+            }
+            generator.write(output);
+            if (rectanglesFile != null) {
+                generator.writeRegions(rectanglesFile);
+            }
+            System.out.println("Wrote " + generator.lineCount + " lines to " + output);
+            return 0;
+        } catch (IOException ex) {
+            System.err.println(ex.getMessage());
+            return 1;
+        }
+    }
+    
+    /**
+     * Check the settings.
+     * @throws IllegalArgumentException if a setting is out of range
+     */
+    private void validate() {
+        if (lineCount < 0 || width < 1 || height < 1 || strokeLines < 1 || segment < 1 || gap < 0) {
+            throw new IllegalArgumentException("Counts and sizes must be positive");
+        }
+        if (tagDensity < 0 || tagDensity > 1 || overlap < 0 || overlap > 1) {
+            throw new IllegalArgumentException("Tag density and overlap must be between 0 and 1");
+        }
+    }
+    
+    /**
+     * Return the tags of a category in a tags file, in the format of
+     * data/tags.txt.
+     * @param file
+     * @param category name of the category, or null for the first one
+     * @return tags
+     * @throws IOException 
+     */
+    private static List<String> readCategory(File file, String category) throws IOException {
+        List<String> tags = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String temp;
+            String currentType = null;
+            while ((temp = reader.readLine()) != null) {
+                if (temp.startsWith("#")) {
+                    if (currentType != null && !tags.isEmpty()) {
+                        break;      // category already read
+                    }
+                    currentType = temp.substring(1);
+                    continue;
+                }
+                if (currentType != null && !temp.isEmpty()
+                        && (category == null || category.equals(currentType))) {
+                    tags.add(temp);
+                }
+            }
+        }
+        return tags;
+    }
+    
+    /**
+     * Return the region of every tag: a grid of cells over the drawing, each
+     * grown around its centre by the overlap so that neighbours overlap.
+     * @return regions
+     */
+    private List<TaggedRectangle> regions() {
+        if (regions == null) {
+            regions = new ArrayList<>();
+            int columns = (int) Math.ceil(Math.sqrt(tags.size()));
+            int rows = (tags.size() + columns - 1) / columns;
+            double cellWidth = (double) width / columns;
+            double cellHeight = (double) height / rows;
+            double regionWidth = Math.min(width, cellWidth * (1 + overlap));
+            double regionHeight = Math.min(height, cellHeight * (1 + overlap));
+            for (int i = 0; i < tags.size(); i++) {
+                double centerX = (i % columns + 0.5) * cellWidth;
+                double centerY = (i / columns + 0.5) * cellHeight;
+                double x = Math.max(0, Math.min(width - regionWidth, centerX - regionWidth / 2));
+                double y = Math.max(0, Math.min(height - regionHeight, centerY - regionHeight / 2));
+                regions.add(new TaggedRectangle(new Rectangle2D(x, y, regionWidth, regionHeight), tags.get(i)));
+            }
+        }
+        return regions;
+    }
+    
+    /**
+     * Write the TRACE file.
+     * @param file
+     * @throws IOException if the file cannot be written
+     */
+    public void write(File file) throws IOException {
+        Random random = new Random(seed);
+        List<TaggedRectangle> tagRegions = regions();
+        try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(file), 1 << 16))) {
+            writer.println("<<Synthetic_Drawing>>");
+            writer.println("seed=" + seed + ",lines=" + lineCount + ",width=" + width + ",height=" + height
+                    + ",strokeLines=" + strokeLines + ",segment=" + segment + ",gap=" + gap
+                    + ",tagDensity=" + tagDensity + ",overlap=" + overlap);
+            writer.println(TraceParser.LINE_SECTION);
+            
+            long time = 0;
+            long id = 1;
+            while (id <= lineCount) {
+                String tag = null;
+                double minX = 0, minY = 0, maxX = width, maxY = height;
+                if (random.nextDouble() < tagDensity) {
+                    TaggedRectangle region = tagRegions.get(random.nextInt(tagRegions.size()));
+                    tag = region.tag;
+                    minX = region.rect.getMinX();
+                    minY = region.rect.getMinY();
+                    maxX = region.rect.getMaxX();
+                    maxY = region.rect.getMaxY();
+                }
+                
+                // one stroke: connected lines with a slowly turning direction
+                int count = 1 + (int) (-strokeLines * Math.log(1 - random.nextDouble()));
+                double x = minX + random.nextDouble() * (maxX - minX);
+                double y = minY + random.nextDouble() * (maxY - minY);
+                double heading = random.nextDouble() * 2 * Math.PI;
+                for (int i = 0; i < count && id <= lineCount; i++, id++) {
+                    double length = segment * (0.5 + random.nextDouble() / 2);
+                    heading += random.nextGaussian() * 0.5;
+                    double endX = Math.max(minX, Math.min(maxX, x + Math.cos(heading) * length));
+                    double endY = Math.max(minY, Math.min(maxY, y + Math.sin(heading) * length));
+                    long duration = 20 + random.nextInt(100);
+                    
+                    writer.print(id);
+                    writer.print(',');
+                    writer.print(Math.round(x));
+                    writer.print(',');
+                    writer.print(Math.round(endX));
+                    writer.print(',');
+                    writer.print(Math.round(y));
+                    writer.print(',');
+                    writer.print(Math.round(endY));
+                    writer.print(',');
+                    writer.print(time);
+                    writer.print(',');
+                    writer.print(time + duration);
+                    if (tag != null) {
+                        writer.print(',');
+                        writer.print(tag);
+                    }
+                    writer.println();
+                    
+                    time += duration + random.nextInt(20);
+                    x = endX;
+                    y = endY;
+                }
+                time += (long) (-gap * Math.log(1 - random.nextDouble()));
+            }
+            
+            writer.println("<<End_Of_Drawing>>");
+            if (writer.checkError()) {
+                throw new IOException("Cannot write " + file);
+            }
+        }
+    }
+    
+    /**
+     * Write the tag regions as a rectangle tag file for the batch mode.
+     * @param file
+     * @throws IOException if the file cannot be written
+     */
+    public void writeRegions(File file) throws IOException {
+        try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(file)))) {
+            writer.println("# TAG,X,Y,WIDTH,HEIGHT");
+            for (TaggedRectangle region : regions()) {
+                writer.println(region.tag + "," + region.rect.getMinX() + "," + region.rect.getMinY() + ","
+                        + region.rect.getWidth() + "," + region.rect.getHeight());
+            }
+            if (writer.checkError()) {
+                throw new IOException("Cannot write " + file);
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.io;
+
+import lapse.model.LineStore;
+
+/**
+ * Receives progress of {@link TraceParser#parse(java.io.File, ParseListener)}.
+ * The methods may be called from any of the parsing threads.
+ * 
+ * @author Burhanuddin
+ */
+public interface ParseListener {
+    
+    /**
+     * Called whenever a chunk of the line section has been parsed.
+     * @param bytesParsed bytes of the line section parsed so far
+     * @param bytesTotal size of the line section in bytes
+     */
+    default void progress(long bytesParsed, long bytesTotal) {
+    }
+    
+    /**
+     * Called once with the lines at the start of the line section, as soon
+     * as they are parsed and before the rest of the file is done. The store
+     * is not modified afterwards.
+     * @param lines 
+     */
+    default void firstLinesParsed(LineStore lines) {
+    }
+    
+    /**
+     * Return true to stop parsing. The parser then throws a
+     * {@link java.util.concurrent.CancellationException}.
+     * @return cancelled
+     */
+    default boolean isCancelled() {
+        return false;
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import lapse.model.LineStore;
+
+/**
+ * Append-only journal of tagging changes, kept next to a TRACE file so that
+ * saving does not rewrite the whole file. Records are buffered and written
+ * with a single fsync per batch, and each record carries a CRC32 so that a
+ * torn write at the end of the journal is detected and dropped on replay.
+ * Lines are referred to by their index after sorting by starting time.
+ * 
+ * <p>Layout: a header with the size and the number of lines of the TRACE
+ * file the journal belongs to, followed by records of
+ * <code>[payload length][type][payload][crc]</code>.</p>
+ * 
+ * @author Burhanuddin
+ */
+public class TagJournal implements Closeable {
+    
+    public static final String EXTENSION = ".journal";
+    public static final int MAX_TAG_BYTES = 0xFFFF;     // the length is stored in two bytes
+    
+    private static final int MAGIC = 0x4C4A524E;     // "LJRN"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+    private static final int RECORD_OVERHEAD = 4 + 1 + 4;
+    private static final byte TAG = 1;
+    private static final byte CLEAR = 2;
+    private static final int BATCH_SIZE = 1 << 16;
+    
+    private final FileChannel channel;
+    private final ByteArrayOutputStream batch;
+    private final ByteArrayOutputStream payload;
+    private final DataOutputStream payloadOut;
+    private final CRC32 crc;
+    
+    private TagJournal(FileChannel channel) {
+        this.channel = channel;
+        this.batch = new ByteArrayOutputStream(BATCH_SIZE);
+        this.payload = new ByteArrayOutputStream();
+        this.payloadOut = new DataOutputStream(payload);
+        this.crc = new CRC32();
+    }
+    
+    /**
+     * Return the journal file of the specified TRACE file.
+     * @param traceFile
+     * @return journal file
+     */
+    public static File journalOf(File traceFile) {
+        return new File(traceFile.getPath() + EXTENSION);
+    }
+    
+    /**
+     * Open the journal of the specified TRACE file for appending, creating it
+     * if it does not exist. A torn record at the end is truncated.
+     * @param traceFile
+     * @param lineCount number of lines in the TRACE file
+     * @return journal
+     * @throws IOException if the journal cannot be opened or belongs to a
+     * different version of the TRACE file
+     */
+    public static TagJournal open(File traceFile, int lineCount) throws IOException {
+        FileChannel channel = FileChannel.open(journalOf(traceFile).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long end;
+            if (channel.size() < HEADER_SIZE) {     // new, or created but never written
+                channel.truncate(0);
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).putLong(traceFile.length()).putInt(lineCount);
+                header.flip();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+                channel.force(true);
+                end = HEADER_SIZE;
+            } else {
+                end = scan(channel, traceFile, lineCount, null);
+                channel.truncate(end);
+            }
+            channel.position(end);
+            return new TagJournal(channel);
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+    
+    /**
+     * Apply the journal of the specified TRACE file to its lines, if there is
+     * a journal. Replay stops at the first incomplete or damaged record.
+     * @param traceFile
+     * @param lines lines of the TRACE file sorted by starting time
+     * @return true if a journal was replayed, false if there is none
+     * @throws IOException if the journal cannot be read or belongs to a
+     * different version of the TRACE file
+     */
+    public static boolean replay(File traceFile, LineStore lines) throws IOException {
+        File journal = journalOf(traceFile);
+        if (!journal.exists()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(journal.toPath(), StandardOpenOption.READ)) {
+            scan(channel, traceFile, lines.size(), lines);
+        }
+        return true;
+    }
+    
+    /**
+     * Write the journal into the TRACE file and delete the journal. The TRACE
+     * file is replaced atomically, so it is never left half written.
+     * @param traceFile
+     * @throws IOException
+     * @throws TraceFormatException 
+     */
+    public static void compact(File traceFile) throws IOException, TraceFormatException {
+        File journal = journalOf(traceFile);
+        if (!journal.exists()) {
+            return;
+        }
+        TraceFile trace = TraceParser.parse(traceFile);
+        trace.getLines().sortByTimeStart();
+        replay(traceFile, trace.getLines());
+        
+        File temp = new File(traceFile.getPath() + ".tmp");
+        TraceWriter.write(temp, trace.getBeforeLines(), trace.getLines(), trace.getAfterLines());
+        Files.move(temp.toPath(), traceFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.delete(journal.toPath());
+    }
+    
+    /**
+     * Delete the journal of the specified TRACE file, if there is one.
+     * @param traceFile
+     * @throws IOException 
+     */
+    public static void delete(File traceFile) throws IOException {
+        Files.deleteIfExists(journalOf(traceFile).toPath());
+    }
+    
+    /**
+     * Validate the header and walk the records, applying them to the lines
+     * if specified.
+     * @return offset after the last intact record
+     */
+    private static long scan(FileChannel channel, File traceFile, int lineCount, LineStore lines)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0) {
+            // read the whole journal, it only holds the changes
+        }
+        buffer.flip();
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("Not a tag journal: " + journalOf(traceFile).getPath());
+        }
+        if (buffer.getLong() != traceFile.length() || buffer.getInt() != lineCount) {
+            throw new IOException("The tag journal does not belong to this version of "
+                    + traceFile.getPath());
+        }
+        
+        CRC32 crc = new CRC32();
+        int end = buffer.position();
+        while (buffer.remaining() >= RECORD_OVERHEAD) {
+            int length = buffer.getInt();
+            if (length < 0 || buffer.remaining() < 1 + length + 4) {
+                break;
+            }
+            ByteBuffer record = buffer.slice();
+            record.limit(1 + length);
+            buffer.position(buffer.position() + 1 + length);
+            crc.reset();
+            crc.update(record.duplicate());
+            if ((int) crc.getValue() != buffer.getInt()) {
+                break;
+            }
+            if (lines != null && !apply(record, lines)) {
+                break;
+            }
+            end = buffer.position();
+        }
+        return end;
+    }
+    
+    /**
+     * Apply one record to the lines.
+     * @return false if the record cannot be applied
+     */
+    private static boolean apply(ByteBuffer record, LineStore lines) {
+        try {
+            byte type = record.get();
+            if (type == CLEAR) {
+                lines.clearTags();
+                return true;
+            }
+            if (type != TAG) {
+                return false;
+            }
+            byte[] tagBytes = new byte[record.getShort() & 0xFFFF];
+            record.get(tagBytes);
+            int count = readVarInt(record);
+            if (count < 0 || count > lines.size()) {
+                return false;
+            }
+            int[] indices = new int[count];
+            int index = 0;
+            for (int i = 0; i < count; i++) {
+                int gap = readVarInt(record);
+                index += gap;
+                if (gap < 0 || index < 0 || index >= lines.size()) {
+                    return false;
+                }
+                indices[i] = index;
+            }
+            int code = lines.tagCode(new String(tagBytes, StandardCharsets.UTF_8));
+            for (int i : indices) {
+                lines.setTagCode(i, code);
+            }
+            return true;
+        } catch (BufferUnderflowException ex) {
+            return false;
+        }
+    }
+    
+    /**
+     * Append a record which sets the tag of the specified lines.
+     * @param tag
+     * @param indices line indices
+     * @throws IOException if the tag is longer than {@value #MAX_TAG_BYTES}
+     * bytes in UTF-8, or the record cannot be written
+     */
+    public void appendTag(String tag, int[] indices) throws IOException {
+        int[] sorted = indices.clone();
+        Arrays.sort(sorted);
+        byte[] tagBytes = tag.getBytes(StandardCharsets.UTF_8);
+        if (tagBytes.length > MAX_TAG_BYTES) {
+            throw new IOException("Tag too long for the journal: " + tagBytes.length + " bytes");
+        }
+        
+        payload.reset();
+        payloadOut.writeByte(TAG);
+        payloadOut.writeShort(tagBytes.length);
+        payloadOut.write(tagBytes);
+        writeVarInt(sorted.length);
+        int previous = 0;
+        for (int index : sorted) {
+            writeVarInt(index - previous);      // indices are stored as gaps
+            previous = index;
+        }
+        appendRecord();
+    }
+    
+    /**
+     * Append a record which removes the tags of all lines.
+     * @throws IOException 
+     */
+    public void appendClear() throws IOException {
+        payload.reset();
+        payloadOut.writeByte(CLEAR);
+        appendRecord();
+    }
+    
+    private void appendRecord() throws IOException {
+        byte[] bytes = payload.toByteArray();
+        crc.reset();
+        crc.update(bytes);
+        DataOutputStream out = new DataOutputStream(batch);
+        out.writeInt(bytes.length - 1);
+        out.write(bytes);
+        out.writeInt((int) crc.getValue());
+        if (batch.size() >= BATCH_SIZE) {
+            commit();
+        }
+    }
+    
+    /**
+     * Write the buffered records and force them to disk.
+     * @throws IOException 
+     */
+    public void commit() throws IOException {
+        if (batch.size() > 0) {
+            ByteBuffer buffer = ByteBuffer.wrap(batch.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            batch.reset();
+        }
+        channel.force(false);
+    }
+    
+    /**
+     * Commit the buffered records and close the journal.
+     * @throws IOException 
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            commit();
+        } finally {
+            channel.close();
+        }
+    }
+    
+    private void writeVarInt(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            payloadOut.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        payloadOut.writeByte(value);
+    }
+    
+    private static int readVarInt(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.io;
+
+import java.util.List;
+import lapse.model.LineStore;
+
+/**
+ * Content of a parsed TRACE file. The lines before and after the line section
+ * are kept as they are so that they can be written back unchanged.
+ * 
+ * @author Burhanuddin
+ */
+public class TraceFile {
+    private final List<String> beforeLines;
+    private final List<String> afterLines;
+    private final LineStore lines;
+    
+    /**
+     * Constructs a parsed TRACE file.
+     * @param beforeLines
+     * @param lines
+     * @param afterLines 
+     */
+    public TraceFile(List<String> beforeLines, LineStore lines, List<String> afterLines) {
+        this.beforeLines = beforeLines;
+        this.lines = lines;
+        this.afterLines = afterLines;
+    }
+    
+    /**
+     * Return the lines up to and including the line section indicator.
+     * @return beforeLines
+     */
+    public List<String> getBeforeLines() {
+        return beforeLines;
+    }
+    
+    /**
+     * Return the lines following the line section.
+     * @return afterLines
+     */
+    public List<String> getAfterLines() {
+        return afterLines;
+    }
+    
+    /**
+     * Return the parsed line coordinates in file order.
+     * @return lines
+     */
+    public LineStore getLines() {
+        return lines;
+    }
+}
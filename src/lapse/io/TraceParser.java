@@ -0,0 +1,506 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import lapse.model.LineStore;
+
+/**
+ * Parser for TRACE files. The line section is split into chunks at line
+ * boundaries, and each chunk is read into memory and parsed straight from
+ * the bytes on the common fork-join pool. The file is not memory-mapped, so
+ * that it can be overwritten as soon as parsing returns. Each row has the format
+ * <code>ID,X_START,X_END,Y_START,Y_END,TIME_START,TIME_END[,TAG]</code>.
+ * 
+ * @author Burhanuddin
+ */
+public class TraceParser {
+    
+    public static final String LINE_SECTION = "<<Extracted_Lines>>";
+    
+    private static final int ID = 0;
+    private static final int X_START = 1;
+    private static final int X_END = 2;
+    private static final int Y_START = 3;
+    private static final int Y_END = 4;
+    private static final int TIME_START = 5;
+    private static final int TIME_END = 6;
+    private static final int NUMBER_OF_TOKENS = TIME_END + 1;
+    private static final String[] TOKEN_NAMES = {
+        "ID", "X_START", "X_END", "Y_START", "Y_END", "TIME_START", "TIME_END"
+    };
+    
+    private static final long MIN_CHUNK_SIZE = 1 << 20;
+    private static final long MAX_CHUNK_SIZE = 1 << 26;
+    private static final int SCAN_BUFFER_SIZE = 1 << 16;
+    private static final int CANCEL_CHECK_ROWS = 4096;
+    
+    private static final ParseListener NO_LISTENER = new ParseListener() {
+    };
+    
+    private TraceParser() {
+    }
+    
+    /**
+     * Parse the specified TRACE file. If the file has no line section, the
+     * returned file has no lines and every line of the file is kept as
+     * before-lines.
+     * @param file
+     * @return traceFile
+     * @throws IOException if the file cannot be read
+     * @throws TraceFormatException if a row in the line section is malformed
+     */
+    public static TraceFile parse(File file) throws IOException, TraceFormatException {
+        return parse(file, NO_LISTENER);
+    }
+    
+    /**
+     * Parse the specified TRACE file, reporting progress to the listener.
+     * @param file
+     * @param listener
+     * @return traceFile
+     * @throws IOException if the file cannot be read
+     * @throws TraceFormatException if a row in the line section is malformed
+     * @throws java.util.concurrent.CancellationException if the listener
+     *         cancelled parsing
+     */
+    public static TraceFile parse(File file, ParseListener listener) throws IOException, TraceFormatException {
+        Charset charset = Charset.defaultCharset();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            List<String> beforeLines = new ArrayList<>();
+            LineReader reader = new LineReader(channel, 0, charset);
+            boolean foundLine = false;
+            String temp;
+            while ((temp = reader.readLine()) != null) {
+                beforeLines.add(temp);
+                if (temp.equals(LINE_SECTION)) {
+                    foundLine = true;
+                    break;
+                }
+            }
+            if (!foundLine) {
+                return new TraceFile(beforeLines, new LineStore(0), Collections.emptyList());
+            }
+            
+            long[] bounds = split(channel, reader.getPosition(), channel.size());
+            Progress progress = new Progress(listener, bounds[bounds.length - 1] - bounds[0]);
+            List<ChunkParser> chunks = new ArrayList<>(bounds.length - 1);
+            for (int i = 0; i < bounds.length - 1; i++) {
+                chunks.add(new ChunkParser(channel, bounds[i], bounds[i + 1], charset, progress, i == 0));
+            }
+            try {
+                ForkJoinTask.invokeAll(chunks);
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            }
+            if (listener.isCancelled()) {
+                throw new CancellationException();
+            }
+            
+            // join the chunks in file order until the end of the line section
+            int total = 0;
+            for (ChunkParser chunk : chunks) {
+                total += chunk.lines.size();
+            }
+            LineStore lines = new LineStore(total);
+            long lineNumber = beforeLines.size() + 1;
+            long afterLinesStart = -1;
+            for (ChunkParser chunk : chunks) {
+                if (chunk.error != null) {
+                    throw new TraceFormatException(lineNumber + chunk.lines.size(), chunk.error);
+                }
+                lines.addAll(chunk.lines);
+                lineNumber += chunk.lines.size();
+                if (chunk.terminator >= 0) {
+                    afterLinesStart = chunk.terminator;
+                    break;
+                }
+            }
+            
+            List<String> afterLines = new ArrayList<>();
+            if (afterLinesStart >= 0) {
+                reader = new LineReader(channel, afterLinesStart, charset);
+                while ((temp = reader.readLine()) != null) {
+                    afterLines.add(temp);
+                }
+            }
+            return new TraceFile(beforeLines, lines, afterLines);
+        }
+    }
+    
+    /**
+     * Split the specified region of the file into chunks which start at the
+     * beginning of a line.
+     * @param channel
+     * @param from
+     * @param to
+     * @return offsets of chunk boundaries, including both ends
+     * @throws IOException 
+     */
+    private static long[] split(FileChannel channel, long from, long to) throws IOException {
+        long chunkSize = (to - from) / (ForkJoinPool.getCommonPoolParallelism() * 4L) + 1;
+        chunkSize = Math.min(Math.max(chunkSize, MIN_CHUNK_SIZE), MAX_CHUNK_SIZE);
+        
+        long[] bounds = new long[16];
+        int count = 0;
+        bounds[count++] = from;
+        long position = from + chunkSize;
+        while (position < to) {
+            long lineStart = findLineStart(channel, position, to);
+            if (lineStart >= to) {
+                break;
+            }
+            if (count == bounds.length - 1) {
+                bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            }
+            bounds[count++] = lineStart;
+            position = lineStart + chunkSize;
+        }
+        bounds[count++] = to;
+        return Arrays.copyOf(bounds, count);
+    }
+    
+    /**
+     * Find the start of the first line at or after the specified position.
+     * @param channel
+     * @param position
+     * @param to
+     * @return offset of the line start, or <code>to</code> if there is none
+     * @throws IOException 
+     */
+    private static long findLineStart(FileChannel channel, long position, long to) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long offset = position - 1;     // the line may start right at position
+        while (offset < to) {
+            buffer.clear();
+            int read = channel.read(buffer, offset);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return offset + i + 1;
+                }
+            }
+            offset += read;
+        }
+        return to;
+    }
+    
+    /**
+     * Parse a single number from the bytes with the same rules as
+     * {@link Long#parseLong(String)}.
+     * @param buffer
+     * @param from
+     * @param to
+     * @param min
+     * @param max
+     * @return value
+     * @throws NumberFormatException if the bytes are not a number within range
+     */
+    private static long parseNumber(ByteBuffer buffer, int from, int to, long min, long max) {
+        if (from >= to) {
+            throw new NumberFormatException("empty value");
+        }
+        int i = from;
+        boolean negative = false;
+        byte first = buffer.get(i);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            if (++i == to) {
+                throw new NumberFormatException("no digits");
+            }
+        }
+        // accumulate negatively like Long.parseLong to cover the whole range
+        long limit = negative ? min : -max;
+        long multiplyMin = limit / 10;
+        long result = 0;
+        for (; i < to; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("not a number");
+            }
+            if (result < multiplyMin) {
+                throw new NumberFormatException("out of range");
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                throw new NumberFormatException("out of range");
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+    
+    /**
+     * Progress shared by the chunks of one file.
+     */
+    private static class Progress {
+        
+        private final ParseListener listener;
+        private final long bytesTotal;
+        private final AtomicLong bytesParsed = new AtomicLong();
+        
+        Progress(ParseListener listener, long bytesTotal) {
+            this.listener = listener;
+            this.bytesTotal = bytesTotal;
+        }
+        
+        void chunkParsed(long bytes) {
+            listener.progress(bytesParsed.addAndGet(bytes), bytesTotal);
+        }
+    }
+    
+    /**
+     * Parse one chunk of the line section. Parsing stops at the end of the
+     * chunk, at the first line starting with "&lt;&lt;" or at the first
+     * malformed row, whichever comes first.
+     */
+    private static class ChunkParser extends RecursiveAction {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final FileChannel channel;
+        private final long start, end;
+        private final Charset charset;
+        private final Progress progress;
+        private final boolean first;
+        private final LineStore lines;
+        private byte[] tagBytes;
+        private long terminator;
+        private String error;
+        
+        ChunkParser(FileChannel channel, long start, long end, Charset charset, Progress progress, boolean first) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.charset = charset;
+            this.progress = progress;
+            this.first = first;
+            this.lines = new LineStore();
+            this.tagBytes = new byte[64];
+            this.terminator = -1;
+        }
+        
+        @Override
+        protected void compute() {
+            if (progress.listener.isCancelled()) {
+                return;
+            }
+            try {
+                parse(read());
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            if (first && error == null) {
+                progress.listener.firstLinesParsed(lines);
+            }
+            progress.chunkParsed(end - start);
+        }
+        
+        /**
+         * Read the whole chunk into a heap buffer.
+         */
+        private ByteBuffer read() throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, start + buffer.position()) < 0) {
+                    throw new EOFException("File truncated while parsing");
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+        
+        private void parse(ByteBuffer buffer) {
+            int limit = buffer.limit();
+            int position = 0;
+            long[] values = new long[NUMBER_OF_TOKENS];
+            while (position < limit) {
+                int lineEnd = position;
+                while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+                int next = lineEnd + 1;
+                if (lineEnd > position && buffer.get(lineEnd - 1) == '\r') {
+                    lineEnd--;
+                }
+                if (lineEnd - position >= 2 && buffer.get(position) == '<' && buffer.get(position + 1) == '<') {
+                    terminator = start + position;
+                    return;
+                }
+                String tag = parseRow(buffer, position, lineEnd, values);
+                if (tag == null) {
+                    return;
+                }
+                lines.add((int) values[ID], (int) values[X_START], (int) values[Y_START],
+                        (int) values[X_END], (int) values[Y_END], values[TIME_START], values[TIME_END], tag);
+                position = next;
+                if (lines.size() % CANCEL_CHECK_ROWS == 0 && progress.listener.isCancelled()) {
+                    return;
+                }
+            }
+        }
+        
+        /**
+         * Parse a row into values and return its tag, or null if the row is
+         * malformed.
+         */
+        private String parseRow(ByteBuffer buffer, int from, int to, long[] values) {
+            int position = from;
+            int tokenEnd = from;
+            for (int token = 0; token < NUMBER_OF_TOKENS; token++) {
+                if (token > 0 && tokenEnd == to) {
+                    error = "expected " + NUMBER_OF_TOKENS + " values but found " + token;
+                    return null;
+                }
+                tokenEnd = position;
+                while (tokenEnd < to && buffer.get(tokenEnd) != ',') {
+                    tokenEnd++;
+                }
+                try {
+                    values[token] = (token < TIME_START)
+                            ? parseNumber(buffer, position, tokenEnd, Integer.MIN_VALUE, Integer.MAX_VALUE)
+                            : parseNumber(buffer, position, tokenEnd, Long.MIN_VALUE, Long.MAX_VALUE);
+                } catch (NumberFormatException ex) {
+                    error = "invalid " + TOKEN_NAMES[token] + " '"
+                            + decode(buffer, position, tokenEnd) + "' (" + ex.getMessage() + ")";
+                    return null;
+                }
+                position = tokenEnd + 1;
+            }
+            if (tokenEnd == to) {
+                return "";
+            }
+            
+            // like String.split, trailing empty tokens are dropped and the tag
+            // is only taken when it is the only extra token
+            int tagEnd = to;
+            while (tagEnd > position && buffer.get(tagEnd - 1) == ',') {
+                tagEnd--;
+            }
+            for (int i = position; i < tagEnd; i++) {
+                if (buffer.get(i) == ',') {
+                    return "";
+                }
+            }
+            return decode(buffer, position, tagEnd);
+        }
+        
+        private String decode(ByteBuffer buffer, int from, int to) {
+            int length = to - from;
+            if (length > tagBytes.length) {
+                tagBytes = new byte[Math.max(length, tagBytes.length * 2)];
+            }
+            for (int i = 0; i < length; i++) {
+                tagBytes[i] = buffer.get(from + i);
+            }
+            return new String(tagBytes, 0, length, charset);
+        }
+    }
+    
+    /**
+     * Sequential line reader over a file channel which keeps track of the
+     * byte offset, used for the small sections around the line section.
+     */
+    private static class LineReader {
+        
+        private final FileChannel channel;
+        private final Charset charset;
+        private final ByteBuffer buffer;
+        private long position;
+        private long readPosition;
+        private byte[] line;
+        
+        LineReader(FileChannel channel, long position, Charset charset) {
+            this.channel = channel;
+            this.charset = charset;
+            this.buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+            this.buffer.flip();
+            this.position = position;
+            this.readPosition = position;
+            this.line = new byte[256];
+        }
+        
+        /**
+         * Return the next line without its terminator, or null at the end of
+         * the file.
+         */
+        String readLine() throws IOException {
+            int length = 0;
+            boolean found = false;
+            while (true) {
+                if (!buffer.hasRemaining()) {
+                    buffer.clear();
+                    int read = channel.read(buffer, readPosition);
+                    buffer.flip();
+                    if (read <= 0) {
+                        break;
+                    }
+                    readPosition += read;
+                }
+                found = true;
+                byte b = buffer.get();
+                position++;
+                if (b == '\n') {
+                    break;
+                }
+                if (length == line.length) {
+                    line = Arrays.copyOf(line, length * 2);
+                }
+                line[length++] = b;
+            }
+            if (!found) {
+                return null;
+            }
+            if (length > 0 && line[length - 1] == '\r') {
+                length--;
+            }
+            return new String(line, 0, length, charset);
+        }
+        
+        /**
+         * Return the offset of the next unread byte.
+         */
+        long getPosition() {
+            return position;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.io;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import lapse.model.LineStore;
+
+/**
+ * Writer for TRACE files. Writes the lines before the line section, every
+ * line with its tag appended, and the lines after the line section.
+ * 
+ * @author Burhanuddin
+ */
+public class TraceWriter {
+    
+    private TraceWriter() {
+    }
+    
+    /**
+     * Write a TRACE file.
+     * @param file
+     * @param beforeLines
+     * @param lines
+     * @param afterLines
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(File file, List<String> beforeLines, LineStore lines,
+            List<String> afterLines) throws IOException {
+        try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(file)))) {
+            beforeLines.stream().forEach((line) -> {
+                writer.println(line);
+            });
+            
+            for (int i = 0; i < lines.size(); i++) {
+                writer.print(lines.getId(i));
+                writer.print(',');
+                writer.print(lines.getStartX(i));
+                writer.print(',');
+                writer.print(lines.getEndX(i));
+                writer.print(',');
+                writer.print(lines.getStartY(i));
+                writer.print(',');
+                writer.print(lines.getEndY(i));
+                writer.print(',');
+                writer.print(lines.getTimeStart(i));
+                writer.print(',');
+                writer.print(lines.getTimeEnd(i));
+                if (lines.isTagged(i)) {
+                    writer.print(',');
+                    writer.print(lines.getTag(i));
+                }
+                writer.println();
+            }
+            
+            afterLines.stream().forEach((line) -> {
+                writer.println(line);
+            });
+            
+            if (writer.checkError()) {
+                throw new IOException("Failed to write " + file.getPath());
+            }
+        }
+    }
+}
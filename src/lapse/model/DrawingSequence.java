@@ -0,0 +1,238 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.model;
+
+import java.util.Arrays;
+import lapse.util.CurveKernel;
+
+/**
+ * The drawing sequence of a drawing, kept up to date while lines are
+ * retagged. It is stored as runs of consecutive lines with the same tag,
+ * each with its middle point, and the curves joining them. A change of tags
+ * only recomputes the runs around the changed lines and the curves near
+ * those runs, since the control points of a curve only depend on its
+ * neighbours.
+ * 
+ * @author Burhanuddin
+ */
+public class DrawingSequence {
+    
+    private final LineStore lines;
+    private int[] runStarts;        // first line of each run, followed by the number of lines
+    private double[] points;        // x, y of the middle of each run
+    private double[] controls;      // controlX1, controlY1, controlX2, controlY2 per curve
+    private SequenceGeometry geometry;
+    
+    /**
+     * Constructs the drawing sequence of the current tags of the lines.
+     * @param lines 
+     */
+    public DrawingSequence(LineStore lines) {
+        this.lines = lines;
+        runStarts = SequenceBuilder.runStarts(lines);
+        int runCount = runStarts.length - 1;
+        points = new double[runCount * 2];
+        for (int r = 0; r < runCount; r++) {
+            computePoint(runStarts[r], runStarts[r + 1], points, r);
+        }
+        controls = new double[Math.max(0, runCount - 1) * 4];
+        CurveKernel.computeControls(points, runCount, 0, runCount - 1, controls);
+        geometry = toGeometry(null, null);
+    }
+    
+    /**
+     * Return the geometry of the sequence. A new geometry is made whenever
+     * the sequence changes.
+     * @return geometry
+     */
+    public SequenceGeometry getGeometry() {
+        return geometry;
+    }
+    
+    /**
+     * Return the number of runs of consecutive lines with the same tag.
+     * @return run count
+     */
+    public int getRunCount() {
+        return runStarts.length - 1;
+    }
+    
+    /**
+     * Update the sequence after the tags of some lines have changed.
+     * @param changed indices of the retagged lines, in any order
+     */
+    public void update(int[] changed) {
+        if (changed.length == 0 || lines.isEmpty()) {
+            return;
+        }
+        int[] sorted = changed.clone();
+        Arrays.sort(sorted);
+        int oldCount = getRunCount();
+        // every changed line splits at most one run into three
+        int capacity = oldCount + 2 * sorted.length;
+        int[] newStarts = new int[capacity + 1];
+        double[] newPoints = new double[capacity * 2];
+        int[] oldRuns = new int[capacity];      // run before the update, or -1 if recomputed
+        int count = 0;
+        int r = 0;
+        int k = 0;
+        while (k < sorted.length) {
+            // the runs around the changed lines, which may split or merge
+            int first = runOf(Math.max(0, sorted[k] - 1));
+            int last = runOf(Math.min(lines.size() - 1, sorted[k] + 1));
+            for (k++; k < sorted.length && sorted[k] - 1 < runStarts[last + 1]; k++) {
+                last = Math.max(last, runOf(Math.min(lines.size() - 1, sorted[k] + 1)));
+            }
+            for (; r < first; r++, count++) {
+                newStarts[count] = runStarts[r];
+                newPoints[count * 2] = points[r * 2];
+                newPoints[count * 2 + 1] = points[r * 2 + 1];
+                oldRuns[count] = r;
+            }
+            int from = runStarts[first];
+            int to = runStarts[last + 1];
+            for (int i = from; i < to; i++) {
+                if (i == from || lines.getTagCode(i) != lines.getTagCode(i - 1)) {
+                    newStarts[count] = i;
+                    oldRuns[count] = -1;
+                    count++;
+                }
+            }
+            for (int n = count - 1, end = to; n >= 0 && oldRuns[n] < 0 && newStarts[n] >= from; n--) {
+                computePoint(newStarts[n], end, newPoints, n);
+                end = newStarts[n];
+            }
+            r = last + 1;
+        }
+        for (; r < oldCount; r++, count++) {
+            newStarts[count] = runStarts[r];
+            newPoints[count * 2] = points[r * 2];
+            newPoints[count * 2 + 1] = points[r * 2 + 1];
+            oldRuns[count] = r;
+        }
+        newStarts[count] = lines.size();
+        
+        double[] newControls = new double[Math.max(0, count - 1) * 4];
+        boolean[] stale = new boolean[Math.max(0, count - 1)];
+        for (int c = 0; c < count - 1; c++) {
+            int old = reusableCurve(c, count, oldRuns, oldCount);
+            if (old >= 0) {
+                System.arraycopy(controls, old * 4, newControls, c * 4, 4);
+            } else {
+                stale[c] = true;
+            }
+        }
+        runStarts = Arrays.copyOf(newStarts, count + 1);
+        points = Arrays.copyOf(newPoints, count * 2);
+        controls = newControls;
+        for (int c = 0; c < stale.length; c++) {
+            if (stale[c]) {
+                int from = c;
+                while (c + 1 < stale.length && stale[c + 1]) {
+                    c++;
+                }
+                CurveKernel.computeControls(points, count, from, c + 1, controls);
+            }
+        }
+        geometry = toGeometry(oldRuns, stale);
+    }
+    
+    /**
+     * Return the run which contains a line.
+     */
+    private int runOf(int index) {
+        int low = 0, high = runStarts.length - 2;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (runStarts[mid] <= index) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+    
+    /**
+     * Return the curve before the update which has the same control points
+     * as a curve after it, or -1 if they have to be computed. The control
+     * points depend on the points from one before to two after the start of
+     * the curve, and on whether the curve is first or last.
+     */
+    private int reusableCurve(int c, int count, int[] oldRuns, int oldCount) {
+        int old = oldRuns[c];
+        if (old < 0 || (count - 1 < 3) != (oldCount - 1 < 3)
+                || (c == 0) != (old == 0) || (c == count - 2) != (old == oldCount - 2)) {
+            return -1;
+        }
+        for (int p = Math.max(0, c - 1); p <= Math.min(count - 1, c + 2); p++) {
+            if (oldRuns[p] != old + p - c) {
+                return -1;
+            }
+        }
+        return old;
+    }
+    
+    /**
+     * Compute the middle of a run of lines the same way as
+     * {@link SequenceBuilder#calculateMidPointOfLineGroup}.
+     */
+    private void computePoint(int from, int to, double[] target, int r) {
+        double totalX = 0.0, totalY = 0.0;
+        for (int i = from; i < to; i++) {
+            double x = lines.getEndX(i);
+            double y = lines.getEndY(i);
+            totalX += x + (lines.getStartX(i) - x) / 2.0;
+            totalY += y + (lines.getStartY(i) - y) / 2.0;
+        }
+        target[r * 2] = totalX / (to - from);
+        target[r * 2 + 1] = totalY / (to - from);
+    }
+    
+    /**
+     * Make the geometry of the current runs. It shares the arrays, which
+     * are replaced rather than changed by an update. Arrows of curves which
+     * were not recomputed are taken from the previous geometry.
+     * @param oldRuns run before the update of each run, or null if there is
+     *        no previous geometry
+     * @param stale curves which were recomputed
+     */
+    private SequenceGeometry toGeometry(int[] oldRuns, boolean[] stale) {
+        int runCount = getRunCount();
+        if (runCount < 2) {
+            return SequenceGeometry.EMPTY;
+        }
+        int[] firstLines = Arrays.copyOf(runStarts, runCount);
+        if (oldRuns == null || geometry.getCurveCount() == 0) {
+            return new SequenceGeometry(points, controls, firstLines);
+        }
+        double[] arrows = new double[(runCount - 1) * 3];
+        for (int c = 0; c < runCount - 1; c++) {
+            if (!stale[c]) {
+                geometry.copyArrow(oldRuns[c], arrows, c);
+            }
+        }
+        return new SequenceGeometry(points, controls, firstLines, arrows, stale);
+    }
+}
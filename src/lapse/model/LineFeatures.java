@@ -0,0 +1,87 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.model;
+
+/**
+ * Features of lines used to compare lines of different drawings of the same
+ * template: the middle of the line, its length and direction, its place in
+ * the time order and the number of lines around it. Each feature is scaled
+ * so that the distance between two feature vectors is roughly in pixels.
+ * 
+ * @author Burhanuddin
+ */
+public class LineFeatures {
+    
+    public static final int DIMENSIONS = 7;
+    
+    private static final double LENGTH_WEIGHT = 0.5;
+    private static final double ANGLE_WEIGHT = 16;
+    private static final double ORDER_WEIGHT = 50;
+    private static final double DENSITY_WEIGHT = 8;
+    private static final double DENSITY_CELL = 32;     // pixels
+    
+    private LineFeatures() {
+    }
+    
+    /**
+     * Return the features of all lines. The lines must be sorted by time.
+     * @param lines
+     * @return {@link #DIMENSIONS} values per line
+     */
+    public static float[] compute(LineStore lines) {
+        int size = lines.size();
+        int columns = (int) (lines.getMaxX() / DENSITY_CELL) + 1;
+        int rows = (int) (lines.getMaxY() / DENSITY_CELL) + 1;
+        int[] cells = new int[size];
+        int[] counts = new int[columns * rows];
+        for (int i = 0; i < size; i++) {
+            int column = (int) ((lines.getStartX(i) + lines.getEndX(i)) / 2.0 / DENSITY_CELL);
+            int row = (int) ((lines.getStartY(i) + lines.getEndY(i)) / 2.0 / DENSITY_CELL);
+            cells[i] = Math.max(0, Math.min(rows - 1, row)) * columns + Math.max(0, Math.min(columns - 1, column));
+            counts[cells[i]]++;
+        }
+        
+        float[] features = new float[size * DIMENSIONS];
+        for (int i = 0; i < size; i++) {
+            double dx = lines.getEndX(i) - lines.getStartX(i), dy = lines.getEndY(i) - lines.getStartY(i);
+            double angle = 2 * Math.atan2(dy, dx);      // doubled so that both directions are the same
+            int column = cells[i] % columns, row = cells[i] / columns;
+            int neighbours = 0;
+            for (int r = Math.max(0, row - 1); r <= Math.min(rows - 1, row + 1); r++) {
+                for (int c = Math.max(0, column - 1); c <= Math.min(columns - 1, column + 1); c++) {
+                    neighbours += counts[r * columns + c];
+                }
+            }
+            int k = i * DIMENSIONS;
+            features[k] = (float) ((lines.getStartX(i) + lines.getEndX(i)) / 2.0);
+            features[k + 1] = (float) ((lines.getStartY(i) + lines.getEndY(i)) / 2.0);
+            features[k + 2] = (float) (LENGTH_WEIGHT * Math.sqrt(dx * dx + dy * dy));
+            features[k + 3] = (float) (ANGLE_WEIGHT * Math.cos(angle));
+            features[k + 4] = (float) (ANGLE_WEIGHT * Math.sin(angle));
+            features[k + 5] = (float) (ORDER_WEIGHT * i / Math.max(1, size - 1));
+            features[k + 6] = (float) (DENSITY_WEIGHT * Math.log1p(neighbours));
+        }
+        return features;
+    }
+}
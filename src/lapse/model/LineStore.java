@@ -0,0 +1,393 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.model;
+
+import java.util.Arrays;
+
+/**
+ * Column store for the line coordinates of a drawing. Every property of a
+ * line is kept in its own primitive array and a line is referred to by its
+ * index, so iterating over the lines does not allocate anything. Tags are
+ * kept as codes of a {@link TagRegistry} where code 0 is the empty tag.
+ * 
+ * @author Burhanuddin
+ */
+public class LineStore {
+    
+    public static final int UNTAGGED = TagRegistry.UNTAGGED;
+    
+    private static final int DEFAULT_CAPACITY = 1024;
+    
+    private int size;
+    private int[] ids;
+    private int[] startX, startY, endX, endY;
+    private long[] timeStart, timeEnd;
+    private int[] tags;
+    private final TagRegistry registry;
+    
+    /**
+     * Constructs an empty line store.
+     */
+    public LineStore() {
+        this(DEFAULT_CAPACITY);
+    }
+    
+    /**
+     * Constructs an empty line store with the specified initial capacity.
+     * @param capacity 
+     */
+    public LineStore(int capacity) {
+        this(capacity, TagRegistry.getDefault());
+    }
+    
+    /**
+     * Constructs an empty line store with the specified initial capacity
+     * whose tags are coded by the specified registry.
+     * @param capacity
+     * @param registry 
+     */
+    public LineStore(int capacity, TagRegistry registry) {
+        ids = new int[capacity];
+        startX = new int[capacity];
+        startY = new int[capacity];
+        endX = new int[capacity];
+        endY = new int[capacity];
+        timeStart = new long[capacity];
+        timeEnd = new long[capacity];
+        tags = new int[capacity];
+        this.registry = registry;
+    }
+    
+    /**
+     * Add a line to the end of the store.
+     * @param id
+     * @param startX
+     * @param startY
+     * @param endX
+     * @param endY
+     * @param timeStart
+     * @param timeEnd
+     * @param tag
+     * @return index of the new line
+     */
+    public int add(int id, int startX, int startY, int endX, int endY,
+            long timeStart, long timeEnd, String tag) {
+        ensureCapacity(size + 1);
+        ids[size] = id;
+        this.startX[size] = startX;
+        this.startY[size] = startY;
+        this.endX[size] = endX;
+        this.endY[size] = endY;
+        this.timeStart[size] = timeStart;
+        this.timeEnd[size] = timeEnd;
+        tags[size] = tagCode(tag);
+        return size++;
+    }
+    
+    /**
+     * Add all lines of another store to the end of this store.
+     * @param other 
+     */
+    public void addAll(LineStore other) {
+        ensureCapacity(size + other.size);
+        System.arraycopy(other.ids, 0, ids, size, other.size);
+        System.arraycopy(other.startX, 0, startX, size, other.size);
+        System.arraycopy(other.startY, 0, startY, size, other.size);
+        System.arraycopy(other.endX, 0, endX, size, other.size);
+        System.arraycopy(other.endY, 0, endY, size, other.size);
+        System.arraycopy(other.timeStart, 0, timeStart, size, other.size);
+        System.arraycopy(other.timeEnd, 0, timeEnd, size, other.size);
+        if (other.registry == registry) {
+            System.arraycopy(other.tags, 0, tags, size, other.size);
+        } else {
+            int[] codeMap = new int[other.registry.size()];
+            for (int code = 0; code < codeMap.length; code++) {
+                codeMap[code] = tagCode(other.registry.name(code));
+            }
+            for (int i = 0; i < other.size; i++) {
+                tags[size + i] = codeMap[other.tags[i]];
+            }
+        }
+        size += other.size;
+    }
+    
+    private void ensureCapacity(int capacity) {
+        if (capacity > ids.length) {
+            int newCapacity = Math.max(capacity, ids.length + (ids.length >> 1) + 1);
+            ids = Arrays.copyOf(ids, newCapacity);
+            startX = Arrays.copyOf(startX, newCapacity);
+            startY = Arrays.copyOf(startY, newCapacity);
+            endX = Arrays.copyOf(endX, newCapacity);
+            endY = Arrays.copyOf(endY, newCapacity);
+            timeStart = Arrays.copyOf(timeStart, newCapacity);
+            timeEnd = Arrays.copyOf(timeEnd, newCapacity);
+            tags = Arrays.copyOf(tags, newCapacity);
+        }
+    }
+    
+    /**
+     * Return the number of lines.
+     * @return size
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Return whether the store has no lines.
+     * @return true if there is no line, false otherwise
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    /**
+     * Return line ID number.
+     * @param index
+     * @return 
+     */
+    public int getId(int index) {
+        return ids[index];
+    }
+    
+    /**
+     * Return x-coordinate of starting point.
+     * @param index
+     * @return 
+     */
+    public int getStartX(int index) {
+        return startX[index];
+    }
+    
+    /**
+     * Return y-coordinate of starting point.
+     * @param index
+     * @return 
+     */
+    public int getStartY(int index) {
+        return startY[index];
+    }
+    
+    /**
+     * Return x-coordinate of ending point.
+     * @param index
+     * @return 
+     */
+    public int getEndX(int index) {
+        return endX[index];
+    }
+    
+    /**
+     * Return y-coordinate of ending point.
+     * @param index
+     * @return 
+     */
+    public int getEndY(int index) {
+        return endY[index];
+    }
+    
+    /**
+     * Return the time when the line started to be drawn.
+     * @param index
+     * @return 
+     */
+    public long getTimeStart(int index) {
+        return timeStart[index];
+    }
+    
+    /**
+     * Return the time when the line ends.
+     * @param index
+     * @return 
+     */
+    public long getTimeEnd(int index) {
+        return timeEnd[index];
+    }
+    
+    /**
+     * Return the tag code of the line.
+     * @param index
+     * @return 
+     */
+    public int getTagCode(int index) {
+        return tags[index];
+    }
+    
+    /**
+     * Return the tag of the line, or an empty string if it has no tag.
+     * @param index
+     * @return 
+     */
+    public String getTag(int index) {
+        return registry.name(tags[index]);
+    }
+    
+    /**
+     * Return whether the line has a tag.
+     * @param index
+     * @return 
+     */
+    public boolean isTagged(int index) {
+        return tags[index] != UNTAGGED;
+    }
+    
+    /**
+     * Set the tag of the line.
+     * @param index
+     * @param tag 
+     */
+    public void setTag(int index, String tag) {
+        tags[index] = tagCode(tag);
+    }
+    
+    /**
+     * Set the tag code of the line.
+     * @param index
+     * @param code 
+     */
+    public void setTagCode(int index, int code) {
+        tags[index] = code;
+    }
+    
+    /**
+     * Remove the tags of all lines.
+     */
+    public void clearTags() {
+        Arrays.fill(tags, 0, size, UNTAGGED);
+    }
+    
+    /**
+     * Return the code for the specified tag. The tag is added to the
+     * registry if it is new.
+     * @param tag
+     * @return code
+     */
+    public int tagCode(String tag) {
+        return registry.code(tag);
+    }
+    
+    /**
+     * Return the tag for the specified code.
+     * @param code
+     * @return tag
+     */
+    public String tagName(int code) {
+        return registry.name(code);
+    }
+    
+    /**
+     * Return the registry which codes the tags of the lines.
+     * @return registry
+     */
+    public TagRegistry getTagRegistry() {
+        return registry;
+    }
+    
+    /**
+     * Return the largest x-coordinate of all lines.
+     * @return 
+     */
+    public int getMaxX() {
+        int max = 0;
+        for (int i = 0; i < size; i++) {
+            max = Math.max(max, Math.max(startX[i], endX[i]));
+        }
+        return max;
+    }
+    
+    /**
+     * Return the largest y-coordinate of all lines.
+     * @return 
+     */
+    public int getMaxY() {
+        int max = 0;
+        for (int i = 0; i < size; i++) {
+            max = Math.max(max, Math.max(startY[i], endY[i]));
+        }
+        return max;
+    }
+    
+    /**
+     * Sort the lines by the time they started to be drawn. Lines drawn at the
+     * same time keep their order.
+     */
+    public void sortByTimeStart() {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        mergeSort(order, new int[size], 0, size);
+        
+        ids = permute(ids, order);
+        startX = permute(startX, order);
+        startY = permute(startY, order);
+        endX = permute(endX, order);
+        endY = permute(endY, order);
+        tags = permute(tags, order);
+        timeStart = permute(timeStart, order);
+        timeEnd = permute(timeEnd, order);
+    }
+    
+    /**
+     * Stable merge sort of line indices by starting time.
+     */
+    private void mergeSort(int[] order, int[] buffer, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(order, buffer, from, mid);
+        mergeSort(order, buffer, mid, to);
+        if (timeStart[order[mid - 1]] <= timeStart[order[mid]]) {
+            return;     // already in order
+        }
+        System.arraycopy(order, from, buffer, from, to - from);
+        int i = from, j = mid, k = from;
+        while (i < mid && j < to) {
+            order[k++] = (timeStart[buffer[j]] < timeStart[buffer[i]]) ? buffer[j++] : buffer[i++];
+        }
+        while (i < mid) {
+            order[k++] = buffer[i++];
+        }
+        while (j < to) {
+            order[k++] = buffer[j++];
+        }
+    }
+    
+    private int[] permute(int[] values, int[] order) {
+        int[] sorted = new int[values.length];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = values[order[i]];
+        }
+        return sorted;
+    }
+    
+    private long[] permute(long[] values, int[] order) {
+        long[] sorted = new long[values.length];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = values[order[i]];
+        }
+        return sorted;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.model;
+
+import javafx.geometry.Point2D;
+import lapse.util.CurveKernel;
+
+/**
+ * Builds the line sequence and the drawing sequence of a drawing. Does not
+ * touch any scene, so it can run on any thread.
+ * 
+ * @author Burhanuddin
+ */
+public class SequenceBuilder {
+    
+    private SequenceBuilder() {
+    }
+    
+    /**
+     * Return the line sequence, which joins the middle of every line in
+     * order.
+     * @param lines
+     * @return sequence
+     */
+    public static SequenceGeometry lineSequence(LineStore lines) {
+        if (lines.size() < 2) {
+            return SequenceGeometry.EMPTY;
+        }
+        double[] points = new double[lines.size() * 2];
+        int[] firstLines = new int[lines.size()];
+        for (int i = 0; i < lines.size(); i++) {
+            double x = lines.getEndX(i);
+            double y = lines.getEndY(i);
+            points[i * 2] = x + (lines.getStartX(i) - x) / 2.0;     // same as Point2D.midpoint
+            points[i * 2 + 1] = y + (lines.getStartY(i) - y) / 2.0;
+            firstLines[i] = i;
+        }
+        double[] controls = new double[(lines.size() - 1) * 4];
+        CurveKernel.computeControls(points, lines.size(), 0, lines.size() - 1, controls);
+        return new SequenceGeometry(points, controls, firstLines);
+    }
+    
+    /**
+     * Return the drawing sequence, which joins the middle of every run of
+     * consecutive lines with the same tag.
+     * @param lines
+     * @return sequence
+     */
+    public static SequenceGeometry drawingSequence(LineStore lines) {
+        return new DrawingSequence(lines).getGeometry();
+    }
+    
+    /**
+     * Return where each run of consecutive lines with the same tag starts.
+     * @param lines
+     * @return index of the first line of each run, followed by the number
+     *         of lines
+     */
+    public static int[] runStarts(LineStore lines) {
+        int count = 1;
+        for (int i = 1; i < lines.size(); i++) {
+            if (lines.getTagCode(i) != lines.getTagCode(i - 1)) {
+                count++;
+            }
+        }
+        if (lines.isEmpty()) {
+            return new int[]{0};
+        }
+        int[] starts = new int[count + 1];
+        int r = 1;
+        for (int i = 1; i < lines.size(); i++) {
+            if (lines.getTagCode(i) != lines.getTagCode(i - 1)) {
+                starts[r++] = i;
+            }
+        }
+        starts[count] = lines.size();
+        return starts;
+    }
+    
+    /**
+     * Calculate the mid point of grouped lines.
+     * @param lines
+     * @param from index of the first line in the group
+     * @param to index after the last line in the group
+     * @return 
+     */
+    public static Point2D calculateMidPointOfLineGroup(LineStore lines, int from, int to) {
+        double totalX = 0.0, totalY = 0.0;
+        for (int i = from; i < to; i++) {
+            double x = lines.getEndX(i);
+            double y = lines.getEndY(i);
+            totalX += x + (lines.getStartX(i) - x) / 2.0;     // same as Point2D.midpoint
+            totalY += y + (lines.getStartY(i) - y) / 2.0;
+        }
+        
+        return new Point2D(totalX / (to - from), totalY / (to - from));
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.model;
+
+import lapse.util.CurveKernel;
+
+/**
+ * Geometry of a sequence of points joined by cubic curves, packed into
+ * primitive arrays. Each curve also carries the pose of the arrow drawn at
+ * its middle.
+ * 
+ * @author Burhanuddin
+ */
+public class SequenceGeometry {
+    
+    public static final SequenceGeometry EMPTY = new SequenceGeometry(new double[0], new double[0]);
+    
+    private static final double ARROW_T = 0.5;
+    
+    private final double[] points;      // x, y per point
+    private final double[] controls;    // controlX1, controlY1, controlX2, controlY2 per curve
+    private final double[] arrows;      // x, y, angle per curve
+    private final int[] firstLines;     // index of the first line of each point, or null
+    
+    /**
+     * Constructs the geometry of a sequence. Curve {@code c} runs from point
+     * {@code c} to point {@code c + 1}.
+     * @param points x and y of each point
+     * @param controls both control points of each curve, one less curve than
+     *        points
+     */
+    public SequenceGeometry(double[] points, double[] controls) {
+        this(points, controls, null);
+    }
+    
+    /**
+     * Constructs the geometry of a sequence whose points stand for groups of
+     * lines in drawing order.
+     * @param points x and y of each point
+     * @param controls both control points of each curve, one less curve than
+     *        points
+     * @param firstLines index of the first line of each point, ascending, or
+     *        null if unknown
+     */
+    public SequenceGeometry(double[] points, double[] controls, int[] firstLines) {
+        if (controls.length / 4 != Math.max(0, points.length / 2 - 1)) {
+            throw new IllegalArgumentException("Need one curve less than points");
+        }
+        if (firstLines != null && firstLines.length != points.length / 2) {
+            throw new IllegalArgumentException("Need the first line of every point");
+        }
+        this.points = points;
+        this.controls = controls;
+        this.firstLines = firstLines;
+        this.arrows = new double[controls.length / 4 * 3];
+        CurveKernel.computeArrows(points, controls, 0, getCurveCount(), ARROW_T, arrows);
+    }
+    
+    /**
+     * Constructs the geometry of a sequence of which the arrows of most
+     * curves are already known.
+     * @param points x and y of each point
+     * @param controls both control points of each curve
+     * @param firstLines index of the first line of each point
+     * @param arrows x, y and angle of the arrow of each curve
+     * @param stale curves whose arrows still have to be computed
+     */
+    SequenceGeometry(double[] points, double[] controls, int[] firstLines, double[] arrows, boolean[] stale) {
+        this.points = points;
+        this.controls = controls;
+        this.firstLines = firstLines;
+        this.arrows = arrows;
+        for (int c = 0; c < getCurveCount(); c++) {
+            if (stale[c]) {
+                CurveKernel.computeArrows(points, controls, c, c + 1, ARROW_T, arrows);
+            }
+        }
+    }
+    
+    public int getPointCount() {
+        return points.length / 2;
+    }
+    
+    public int getCurveCount() {
+        return controls.length / 4;
+    }
+    
+    /**
+     * Return the number of points whose lines started to be drawn among the
+     * first lines of the drawing.
+     * @param lineCount number of first lines
+     * @return number of first points, or all points if their lines are not
+     *         known
+     */
+    public int countPointsStartedBy(int lineCount) {
+        if (firstLines == null) {
+            return getPointCount();
+        }
+        int low = 0, high = firstLines.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (firstLines[mid] < lineCount) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    public double getX(int point) {
+        return points[point * 2];
+    }
+    
+    public double getY(int point) {
+        return points[point * 2 + 1];
+    }
+    
+    public double getControlX1(int curve) {
+        return controls[curve * 4];
+    }
+    
+    public double getControlY1(int curve) {
+        return controls[curve * 4 + 1];
+    }
+    
+    public double getControlX2(int curve) {
+        return controls[curve * 4 + 2];
+    }
+    
+    public double getControlY2(int curve) {
+        return controls[curve * 4 + 3];
+    }
+    
+    public double getArrowX(int curve) {
+        return arrows[curve * 3];
+    }
+    
+    public double getArrowY(int curve) {
+        return arrows[curve * 3 + 1];
+    }
+    
+    /**
+     * Copy the arrow of a curve to the arrows of another sequence.
+     */
+    void copyArrow(int curve, double[] target, int targetCurve) {
+        System.arraycopy(arrows, curve * 3, target, targetCurve * 3, 3);
+    }
+    
+    /**
+     * Return the rotation of the arrow of a curve.
+     * @param curve
+     * @return angle in radians
+     */
+    public double getArrowAngle(int curve) {
+        return arrows[curve * 3 + 2];
+    }
+}
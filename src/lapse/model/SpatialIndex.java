@@ -0,0 +1,428 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.model;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import javafx.geometry.Rectangle2D;
+
+/**
+ * Static R-tree over the bounding boxes of the lines in a {@link LineStore}.
+ * The leaves are packed with Sort-Tile-Recursive (STR) and the upper levels
+ * are packed in order on top of them, so the lines below any node form one
+ * contiguous range of the packed order. The tree is built once after the
+ * store is loaded and sorted, because it refers to lines by index.
+ * 
+ * @author Burhanuddin
+ */
+public class SpatialIndex {
+    
+    private static final int NODE_CAPACITY = 16;
+    
+    private final int size;
+    private final int[] items;          // line indices in packed order
+    private final int[] itemBoxes;      // minX, minY, maxX, maxY per item
+    private final int[][] levelBoxes;   // minX, minY, maxX, maxY per node, leaves first
+    
+    /**
+     * Constructs an empty index.
+     */
+    public SpatialIndex() {
+        this(new LineStore(0));
+    }
+    
+    /**
+     * Build the index over all lines in the store.
+     * @param lines 
+     */
+    public SpatialIndex(LineStore lines) {
+        size = lines.size();
+        items = packItems(lines);
+        itemBoxes = new int[size * 4];
+        for (int i = 0; i < size; i++) {
+            int line = items[i];
+            itemBoxes[i * 4] = Math.min(lines.getStartX(line), lines.getEndX(line));
+            itemBoxes[i * 4 + 1] = Math.min(lines.getStartY(line), lines.getEndY(line));
+            itemBoxes[i * 4 + 2] = Math.max(lines.getStartX(line), lines.getEndX(line));
+            itemBoxes[i * 4 + 3] = Math.max(lines.getStartY(line), lines.getEndY(line));
+        }
+        
+        int levels = 0;
+        for (int count = size; count > 1 || (count == 1 && levels == 0); count = nodeCount(count)) {
+            levels++;
+        }
+        levelBoxes = new int[levels][];
+        int[] childBoxes = itemBoxes;
+        int childCount = size;
+        for (int level = 0; level < levelBoxes.length; level++) {
+            int count = nodeCount(childCount);
+            int[] boxes = new int[count * 4];
+            for (int node = 0; node < count; node++) {
+                int from = node * NODE_CAPACITY;
+                int to = Math.min(from + NODE_CAPACITY, childCount);
+                int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+                int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+                for (int child = from; child < to; child++) {
+                    minX = Math.min(minX, childBoxes[child * 4]);
+                    minY = Math.min(minY, childBoxes[child * 4 + 1]);
+                    maxX = Math.max(maxX, childBoxes[child * 4 + 2]);
+                    maxY = Math.max(maxY, childBoxes[child * 4 + 3]);
+                }
+                boxes[node * 4] = minX;
+                boxes[node * 4 + 1] = minY;
+                boxes[node * 4 + 2] = maxX;
+                boxes[node * 4 + 3] = maxY;
+            }
+            levelBoxes[level] = boxes;
+            childBoxes = boxes;
+            childCount = count;
+        }
+    }
+    
+    private static int nodeCount(int childCount) {
+        return (childCount + NODE_CAPACITY - 1) / NODE_CAPACITY;
+    }
+    
+    /**
+     * Order the lines with Sort-Tile-Recursive: sort by the x-coordinate of
+     * the box centre, cut into vertical slices and sort each slice by the
+     * y-coordinate of the box centre.
+     */
+    private static int[] packItems(LineStore lines) {
+        int size = lines.size();
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = key(lines.getStartX(i) + lines.getEndX(i), i);
+        }
+        Arrays.sort(keys);
+        
+        int leaves = nodeCount(size);
+        int sliceSize = (int) Math.ceil(Math.sqrt(leaves)) * NODE_CAPACITY;
+        for (int from = 0; from < size; from += sliceSize) {
+            int to = Math.min(from + sliceSize, size);
+            for (int i = from; i < to; i++) {
+                int line = (int) keys[i];
+                keys[i] = key(lines.getStartY(line) + lines.getEndY(line), line);
+            }
+            Arrays.sort(keys, from, to);
+        }
+        
+        int[] items = new int[size];
+        for (int i = 0; i < size; i++) {
+            items[i] = (int) keys[i];
+        }
+        return items;
+    }
+    
+    /**
+     * Pack the sort key and the line index so that sorting the result sorts
+     * by key, then by index.
+     */
+    private static long key(int value, int index) {
+        return ((long) value << 32) | index;
+    }
+    
+    /**
+     * Return the number of indexed lines.
+     * @return size
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Report every line which lies entirely in the rectangle.
+     * @param rect
+     * @param action called with the index of each line
+     */
+    public void queryContained(Rectangle2D rect, IntConsumer action) {
+        queryContained(rect.getMinX(), rect.getMinY(), rect.getMaxX(), rect.getMaxY(), action);
+    }
+    
+    /**
+     * Report every line which lies entirely in the rectangle. Lines are
+     * reported in no particular order.
+     * @param minX
+     * @param minY
+     * @param maxX
+     * @param maxY
+     * @param action called with the index of each line
+     */
+    public void queryContained(double minX, double minY, double maxX, double maxY, IntConsumer action) {
+        if (size > 0) {
+            int top = levelBoxes.length - 1;
+            for (int node = 0; node < levelBoxes[top].length / 4; node++) {
+                queryContained(top, node, minX, minY, maxX, maxY, action);
+            }
+        }
+    }
+    
+    /**
+     * Report every line whose bounding box intersects the rectangle.
+     * @param rect
+     * @param action called with the index of each line
+     */
+    public void queryIntersecting(Rectangle2D rect, IntConsumer action) {
+        queryIntersecting(rect.getMinX(), rect.getMinY(), rect.getMaxX(), rect.getMaxY(), action);
+    }
+    
+    /**
+     * Report every line whose bounding box intersects the rectangle. Lines
+     * are reported in no particular order.
+     * @param minX
+     * @param minY
+     * @param maxX
+     * @param maxY
+     * @param action called with the index of each line
+     */
+    public void queryIntersecting(double minX, double minY, double maxX, double maxY, IntConsumer action) {
+        if (size > 0) {
+            int top = levelBoxes.length - 1;
+            for (int node = 0; node < levelBoxes[top].length / 4; node++) {
+                queryIntersecting(top, node, minX, minY, maxX, maxY, action);
+            }
+        }
+    }
+    
+    /**
+     * Report the lines which lie entirely in one rectangle but not in the
+     * other, e.g. while a selection is dragged. Parts of the tree which lie
+     * in both rectangles or in neither are skipped, so the cost depends on
+     * the lines near the edges that moved rather than on the lines inside.
+     * @param before rectangle before the change, or null if there was none
+     * @param after rectangle after the change, or null if there is none
+     * @param entered called with each line only in the rectangle after
+     * @param left called with each line only in the rectangle before
+     */
+    public void queryContainedChanges(Rectangle2D before, Rectangle2D after, IntConsumer entered, IntConsumer left) {
+        if (size > 0) {
+            int top = levelBoxes.length - 1;
+            for (int node = 0; node < levelBoxes[top].length / 4; node++) {
+                queryContainedChanges(top, node, before, after, entered, left);
+            }
+        }
+    }
+    
+    private void queryContainedChanges(int level, int node, Rectangle2D before, Rectangle2D after,
+            IntConsumer entered, IntConsumer left) {
+        int[] boxes = levelBoxes[level];
+        int b = node * 4;
+        boolean inBefore = contains(before, boxes, b);
+        boolean inAfter = contains(after, boxes, b);
+        boolean outBefore = !intersects(before, boxes, b);
+        boolean outAfter = !intersects(after, boxes, b);
+        if ((inBefore && inAfter) || (outBefore && outAfter)) {
+            return;     // no line below changes
+        }
+        if ((inAfter && outBefore) || (inBefore && outAfter)) {
+            // every line below changes the same way
+            long span = NODE_CAPACITY;
+            for (int i = 0; i < level; i++) {
+                span *= NODE_CAPACITY;
+            }
+            int from = (int) (node * span);
+            int to = (int) Math.min(from + span, size);
+            IntConsumer action = inAfter ? entered : left;
+            for (int i = from; i < to; i++) {
+                action.accept(items[i]);
+            }
+            return;
+        }
+        int from = node * NODE_CAPACITY;
+        if (level == 0) {
+            int to = Math.min(from + NODE_CAPACITY, size);
+            for (int i = from; i < to; i++) {
+                boolean wasIn = contains(before, itemBoxes, i * 4);
+                boolean isIn = contains(after, itemBoxes, i * 4);
+                if (isIn && !wasIn) {
+                    entered.accept(items[i]);
+                } else if (wasIn && !isIn) {
+                    left.accept(items[i]);
+                }
+            }
+        } else {
+            int to = Math.min(from + NODE_CAPACITY, levelBoxes[level - 1].length / 4);
+            for (int child = from; child < to; child++) {
+                queryContainedChanges(level - 1, child, before, after, entered, left);
+            }
+        }
+    }
+    
+    private static boolean contains(Rectangle2D rect, int[] boxes, int b) {
+        return rect != null && boxes[b] >= rect.getMinX() && boxes[b + 2] <= rect.getMaxX()
+                && boxes[b + 1] >= rect.getMinY() && boxes[b + 3] <= rect.getMaxY();
+    }
+    
+    private static boolean intersects(Rectangle2D rect, int[] boxes, int b) {
+        return rect != null && boxes[b] <= rect.getMaxX() && boxes[b + 2] >= rect.getMinX()
+                && boxes[b + 1] <= rect.getMaxY() && boxes[b + 3] >= rect.getMinY();
+    }
+    
+    /**
+     * Return the line nearest to a point, measured to the line itself
+     * rather than its bounding box. Only nodes which may hold a line nearer
+     * than the best so far are visited, so the cost is that of a few leaves
+     * when the search distance is small.
+     * @param lines the indexed lines
+     * @param x
+     * @param y
+     * @param maxDistance lines further away than this are not found
+     * @return line index, or -1 if no line is that near. Of lines at the same
+     *         distance, the one drawn last is returned.
+     */
+    public int nearest(LineStore lines, double x, double y, double maxDistance) {
+        Nearest nearest = new Nearest(lines, x, y, maxDistance * maxDistance);
+        if (size > 0) {
+            int top = levelBoxes.length - 1;
+            for (int node = 0; node < levelBoxes[top].length / 4; node++) {
+                nearest(top, node, nearest);
+            }
+        }
+        return nearest.line;
+    }
+    
+    private void nearest(int level, int node, Nearest nearest) {
+        int[] boxes = levelBoxes[level];
+        int b = node * 4;
+        if (nearest.boxDistance(boxes[b], boxes[b + 1], boxes[b + 2], boxes[b + 3]) > nearest.distance) {
+            return;     // too far
+        }
+        int from = node * NODE_CAPACITY;
+        if (level == 0) {
+            int to = Math.min(from + NODE_CAPACITY, size);
+            for (int i = from; i < to; i++) {
+                int c = i * 4;
+                if (nearest.boxDistance(itemBoxes[c], itemBoxes[c + 1], itemBoxes[c + 2], itemBoxes[c + 3])
+                        <= nearest.distance) {
+                    nearest.offer(items[i]);
+                }
+            }
+        } else {
+            int to = Math.min(from + NODE_CAPACITY, levelBoxes[level - 1].length / 4);
+            for (int child = from; child < to; child++) {
+                nearest(level - 1, child, nearest);
+            }
+        }
+    }
+    
+    private void queryIntersecting(int level, int node, double minX, double minY, double maxX, double maxY,
+            IntConsumer action) {
+        int[] boxes = levelBoxes[level];
+        int b = node * 4;
+        if (boxes[b] > maxX || boxes[b + 2] < minX || boxes[b + 1] > maxY || boxes[b + 3] < minY) {
+            return;     // disjoint
+        }
+        int from = node * NODE_CAPACITY;
+        if (level == 0) {
+            int to = Math.min(from + NODE_CAPACITY, size);
+            for (int i = from; i < to; i++) {
+                int c = i * 4;
+                if (itemBoxes[c] <= maxX && itemBoxes[c + 2] >= minX
+                        && itemBoxes[c + 1] <= maxY && itemBoxes[c + 3] >= minY) {
+                    action.accept(items[i]);
+                }
+            }
+        } else {
+            int to = Math.min(from + NODE_CAPACITY, levelBoxes[level - 1].length / 4);
+            for (int child = from; child < to; child++) {
+                queryIntersecting(level - 1, child, minX, minY, maxX, maxY, action);
+            }
+        }
+    }
+    
+    private void queryContained(int level, int node, double minX, double minY, double maxX, double maxY,
+            IntConsumer action) {
+        int[] boxes = levelBoxes[level];
+        int b = node * 4;
+        if (boxes[b] > maxX || boxes[b + 2] < minX || boxes[b + 1] > maxY || boxes[b + 3] < minY) {
+            return;     // disjoint
+        }
+        if (boxes[b] >= minX && boxes[b + 2] <= maxX && boxes[b + 1] >= minY && boxes[b + 3] <= maxY) {
+            // every line below lies in the rectangle
+            long span = NODE_CAPACITY;
+            for (int i = 0; i < level; i++) {
+                span *= NODE_CAPACITY;
+            }
+            int from = (int) (node * span);
+            int to = (int) Math.min(from + span, size);
+            for (int i = from; i < to; i++) {
+                action.accept(items[i]);
+            }
+            return;
+        }
+        int from = node * NODE_CAPACITY;
+        if (level == 0) {
+            int to = Math.min(from + NODE_CAPACITY, size);
+            for (int i = from; i < to; i++) {
+                int c = i * 4;
+                if (itemBoxes[c] >= minX && itemBoxes[c + 2] <= maxX
+                        && itemBoxes[c + 1] >= minY && itemBoxes[c + 3] <= maxY) {
+                    action.accept(items[i]);
+                }
+            }
+        } else {
+            int to = Math.min(from + NODE_CAPACITY, levelBoxes[level - 1].length / 4);
+            for (int child = from; child < to; child++) {
+                queryContained(level - 1, child, minX, minY, maxX, maxY, action);
+            }
+        }
+    }
+    
+    /**
+     * State of a nearest line search. Distances are squared.
+     */
+    private static class Nearest {
+        
+        final LineStore lines;
+        final double x, y;
+        double distance;
+        int line = -1;
+        
+        Nearest(LineStore lines, double x, double y, double distance) {
+            this.lines = lines;
+            this.x = x;
+            this.y = y;
+            this.distance = distance;
+        }
+        
+        double boxDistance(int minX, int minY, int maxX, int maxY) {
+            double dx = Math.max(0, Math.max(minX - x, x - maxX));
+            double dy = Math.max(0, Math.max(minY - y, y - maxY));
+            return dx * dx + dy * dy;
+        }
+        
+        void offer(int index) {
+            double x1 = lines.getStartX(index), y1 = lines.getStartY(index);
+            double dx = lines.getEndX(index) - x1, dy = lines.getEndY(index) - y1;
+            double length = dx * dx + dy * dy;
+            double t = (length == 0) ? 0 : Math.max(0, Math.min(1, ((x - x1) * dx + (y - y1) * dy) / length));
+            double ex = x1 + t * dx - x, ey = y1 + t * dy - y;
+            double d = ex * ex + ey * ey;
+            if (d < distance || (d == distance && index > line)) {
+                distance = d;
+                line = index;
+            }
+        }
+    }
+}
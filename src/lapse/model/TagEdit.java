@@ -0,0 +1,199 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.model;
+
+import java.util.Arrays;
+
+/**
+ * A change of the tags of some lines, stored as the indices of the changed
+ * lines with their old and new tag codes, so that it can be undone and
+ * redone in time proportional to the number of changed lines. When all
+ * changed lines had the same old tag, or get the same new tag, which is the
+ * usual case, it is stored once instead of once per line.
+ * 
+ * @author Burhanuddin
+ */
+public class TagEdit {
+    
+    private final int[] indices;
+    private final int[] oldCodes;     // null if all lines had oldCode
+    private final int oldCode;
+    private final int[] newCodes;     // null if all lines get newCode
+    private final int newCode;
+    
+    private TagEdit(int[] indices, int[] oldCodes, int[] newCodes, int newCode) {
+        this.indices = indices;
+        this.oldCodes = isSame(oldCodes) ? null : oldCodes;
+        this.oldCode = (indices.length > 0) ? oldCodes[0] : LineStore.UNTAGGED;
+        this.newCodes = (newCodes == null || isSame(newCodes)) ? null : newCodes;
+        this.newCode = newCode;
+    }
+    
+    private static boolean isSame(int[] codes) {
+        for (int code : codes) {
+            if (code != codes[0]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Return an edit which sets the tag of the specified lines. Lines which
+     * already have the tag are left out.
+     * @param lines
+     * @param indices line indices
+     * @param tag new tag, or an empty string to remove the tag
+     * @return edit
+     */
+    public static TagEdit tag(LineStore lines, int[] indices, String tag) {
+        int code = lines.tagCode(tag);
+        int[] changed = new int[indices.length];
+        int[] oldCodes = new int[indices.length];
+        int count = 0;
+        for (int i : indices) {
+            if (lines.getTagCode(i) != code) {
+                changed[count] = i;
+                oldCodes[count] = lines.getTagCode(i);
+                count++;
+            }
+        }
+        return new TagEdit(Arrays.copyOf(changed, count), Arrays.copyOf(oldCodes, count), null, code);
+    }
+    
+    /**
+     * Return an edit which sets a tag of its own for each line, e.g. when
+     * suggested tags are accepted. Lines which already have their tag are
+     * left out.
+     * @param lines
+     * @param indices line indices
+     * @param codes new tag code of each line
+     * @return edit
+     */
+    public static TagEdit tag(LineStore lines, int[] indices, int[] codes) {
+        int[] changed = new int[indices.length];
+        int[] oldCodes = new int[indices.length];
+        int[] newCodes = new int[indices.length];
+        int count = 0;
+        for (int k = 0; k < indices.length; k++) {
+            int i = indices[k];
+            if (lines.getTagCode(i) != codes[k]) {
+                changed[count] = i;
+                oldCodes[count] = lines.getTagCode(i);
+                newCodes[count] = codes[k];
+                count++;
+            }
+        }
+        return new TagEdit(Arrays.copyOf(changed, count), Arrays.copyOf(oldCodes, count),
+                Arrays.copyOf(newCodes, count), (count > 0) ? newCodes[0] : LineStore.UNTAGGED);
+    }
+    
+    /**
+     * Return an edit which removes the tags of all lines.
+     * @param lines
+     * @return edit
+     */
+    public static TagEdit clear(LineStore lines) {
+        int count = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            if (lines.isTagged(i)) {
+                count++;
+            }
+        }
+        int[] indices = new int[count];
+        int[] oldCodes = new int[count];
+        count = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            if (lines.isTagged(i)) {
+                indices[count] = i;
+                oldCodes[count] = lines.getTagCode(i);
+                count++;
+            }
+        }
+        return new TagEdit(indices, oldCodes, null, LineStore.UNTAGGED);
+    }
+    
+    /**
+     * Return the indices of the changed lines.
+     * @return indices, not to be modified
+     */
+    public int[] getIndices() {
+        return indices;
+    }
+    
+    /**
+     * Return the tag code of a changed line before the edit.
+     * @param k position in {@link #getIndices()}
+     * @return tag code
+     */
+    public int getOldCode(int k) {
+        return (oldCodes == null) ? oldCode : oldCodes[k];
+    }
+    
+    /**
+     * Return the tag code of a changed line after the edit.
+     * @param k position in {@link #getIndices()}
+     * @return tag code
+     */
+    public int getNewCode(int k) {
+        return (newCodes == null) ? newCode : newCodes[k];
+    }
+    
+    /**
+     * Return the number of changed lines.
+     * @return size
+     */
+    public int size() {
+        return indices.length;
+    }
+    
+    /**
+     * Return the approximate memory used by the edit.
+     * @return bytes
+     */
+    public long getByteSize() {
+        return 64 + 4L * indices.length + ((oldCodes == null) ? 0 : 4L * oldCodes.length)
+                + ((newCodes == null) ? 0 : 4L * newCodes.length);
+    }
+    
+    /**
+     * Set the new tag of the changed lines.
+     * @param lines 
+     */
+    public void apply(LineStore lines) {
+        for (int k = 0; k < indices.length; k++) {
+            lines.setTagCode(indices[k], getNewCode(k));
+        }
+    }
+    
+    /**
+     * Set the old tags of the changed lines back.
+     * @param lines 
+     */
+    public void revert(LineStore lines) {
+        for (int k = 0; k < indices.length; k++) {
+            lines.setTagCode(indices[k], getOldCode(k));
+        }
+    }
+}
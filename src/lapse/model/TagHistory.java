@@ -0,0 +1,237 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.model;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Undo and redo history of the tag edits of one line store. The number of
+ * edits is not limited, only the memory they use: when the total exceeds
+ * the limit, the oldest edits are forgotten, but the latest edit is always
+ * kept. The history also remembers the tag of every line at the last save,
+ * so that unsaved lines can be told apart from saved ones after any number
+ * of undos and redos.
+ * 
+ * @author Burhanuddin
+ */
+public class TagHistory {
+    
+    public static final long DEFAULT_BYTE_LIMIT = 64L * 1024 * 1024;
+    
+    private static final int NOT_CHANGED = -1;
+    
+    private final LineStore lines;
+    private final long byteLimit;
+    private final Deque<TagEdit> undoStack;
+    private final Deque<TagEdit> redoStack;
+    private long byteSize;
+    
+    private int[] savedCodes;       // tag at the last save of each changed line, or NOT_CHANGED
+    private int[] changedLines;     // indices of the lines in savedCodes
+    private int changedCount;
+    
+    /**
+     * Constructs an empty history with the default memory limit, which can
+     * be changed with the system property lapse.undoBytes.
+     * @param lines 
+     */
+    public TagHistory(LineStore lines) {
+        this(lines, Long.getLong("lapse.undoBytes", DEFAULT_BYTE_LIMIT));
+    }
+    
+    /**
+     * Constructs an empty history.
+     * @param lines
+     * @param byteLimit memory limit for the edits
+     */
+    public TagHistory(LineStore lines, long byteLimit) {
+        this.lines = lines;
+        this.byteLimit = byteLimit;
+        this.undoStack = new ArrayDeque<>();
+        this.redoStack = new ArrayDeque<>();
+    }
+    
+    /**
+     * Apply an edit and add it to the history. Clears the redo history.
+     * @param edit
+     * @return false if the edit changes nothing and was ignored
+     */
+    public boolean execute(TagEdit edit) {
+        if (edit.size() == 0) {
+            return false;
+        }
+        for (TagEdit undone : redoStack) {
+            byteSize -= undone.getByteSize();
+        }
+        redoStack.clear();
+        
+        rememberSavedCodes(edit);
+        edit.apply(lines);
+        undoStack.push(edit);
+        byteSize += edit.getByteSize();
+        while (byteSize > byteLimit && undoStack.size() > 1) {
+            byteSize -= undoStack.removeLast().getByteSize();
+        }
+        return true;
+    }
+    
+    /**
+     * Revert the latest edit.
+     * @return reverted edit, or null if there is nothing to undo
+     */
+    public TagEdit undo() {
+        if (undoStack.isEmpty()) {
+            return null;
+        }
+        TagEdit edit = undoStack.pop();
+        rememberSavedCodes(edit);
+        edit.revert(lines);
+        redoStack.push(edit);
+        return edit;
+    }
+    
+    /**
+     * Apply the latest reverted edit again.
+     * @return applied edit, or null if there is nothing to redo
+     */
+    public TagEdit redo() {
+        if (redoStack.isEmpty()) {
+            return null;
+        }
+        TagEdit edit = redoStack.pop();
+        rememberSavedCodes(edit);
+        edit.apply(lines);
+        undoStack.push(edit);
+        return edit;
+    }
+    
+    /**
+     * Return true if there is an edit to undo.
+     * @return canUndo
+     */
+    public boolean canUndo() {
+        return !undoStack.isEmpty();
+    }
+    
+    /**
+     * Return true if there is a reverted edit to redo.
+     * @return canRedo
+     */
+    public boolean canRedo() {
+        return !redoStack.isEmpty();
+    }
+    
+    /**
+     * Return the memory used by the edits in the history.
+     * @return bytes
+     */
+    public long getByteSize() {
+        return byteSize;
+    }
+    
+    /**
+     * Forget all edits.
+     */
+    public void clear() {
+        undoStack.clear();
+        redoStack.clear();
+        byteSize = 0;
+    }
+    
+    /**
+     * Mark the current tags as saved.
+     */
+    public void markSaved() {
+        for (int k = 0; k < changedCount; k++) {
+            savedCodes[changedLines[k]] = NOT_CHANGED;     // only the changed lines, not the whole array
+        }
+        changedCount = 0;
+    }
+    
+    /**
+     * Return whether the tag of the line differs from its tag at the last
+     * save.
+     * @param index
+     * @return 
+     */
+    public boolean isUnsaved(int index) {
+        return savedCodes != null && savedCodes[index] != NOT_CHANGED
+                && savedCodes[index] != lines.getTagCode(index);
+    }
+    
+    /**
+     * Return the lines whose tag differs from their tag at the last save.
+     * Takes time proportional to the number of lines changed since then.
+     * @return indices in ascending order
+     */
+    public int[] getUnsavedLines() {
+        int[] unsaved = new int[changedCount];
+        int count = 0;
+        for (int k = 0; k < changedCount; k++) {
+            if (isUnsaved(changedLines[k])) {
+                unsaved[count++] = changedLines[k];
+            }
+        }
+        unsaved = Arrays.copyOf(unsaved, count);
+        Arrays.sort(unsaved);
+        return unsaved;
+    }
+    
+    /**
+     * Return whether any tag differs from the last save.
+     * @return 
+     */
+    public boolean isModified() {
+        for (int k = 0; k < changedCount; k++) {
+            if (isUnsaved(changedLines[k])) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Remember the current tag of the lines of an edit before it is applied
+     * or reverted, unless they were already changed since the last save.
+     */
+    private void rememberSavedCodes(TagEdit edit) {
+        if (savedCodes == null) {
+            savedCodes = new int[lines.size()];
+            Arrays.fill(savedCodes, NOT_CHANGED);
+            changedLines = new int[Math.max(16, edit.size())];
+        }
+        for (int i : edit.getIndices()) {
+            if (savedCodes[i] == NOT_CHANGED) {
+                savedCodes[i] = lines.getTagCode(i);
+                if (changedCount == changedLines.length) {
+                    changedLines = Arrays.copyOf(changedLines,
+                            Math.max(changedCount * 2, changedCount + edit.size()));
+                }
+                changedLines[changedCount++] = i;
+            }
+        }
+    }
+}
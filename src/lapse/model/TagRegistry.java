@@ -0,0 +1,107 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.model;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary of tags which gives every tag a dense int code, so that lines
+ * store, compare and group tags as ints. Code 0 is the empty tag of an
+ * untagged line. A tag is registered the first time its code is asked for,
+ * whether it comes from the tag list or from a file, and keeps its code for
+ * the life of the registry. All line stores share the default registry
+ * unless given their own, so lines can move between stores without
+ * recoding their tags. It can be used from any thread.
+ * 
+ * @author Burhanuddin
+ */
+public class TagRegistry {
+    
+    public static final int UNTAGGED = 0;
+    
+    private static final TagRegistry DEFAULT = new TagRegistry();
+    
+    private final Map<String, Integer> codes = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[16];
+    private volatile int size;
+    
+    /**
+     * Constructs a registry which only knows the empty tag.
+     */
+    public TagRegistry() {
+        code("");
+    }
+    
+    /**
+     * Return the registry shared by all line stores by default.
+     * @return registry
+     */
+    public static TagRegistry getDefault() {
+        return DEFAULT;
+    }
+    
+    /**
+     * Return the code for the specified tag. The tag is registered if it is
+     * new.
+     * @param tag
+     * @return code
+     */
+    public int code(String tag) {
+        Integer code = codes.get(tag);
+        return (code != null) ? code : register(tag);
+    }
+    
+    private synchronized int register(String tag) {
+        Integer code = codes.get(tag);
+        if (code != null) {
+            return code;
+        }
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+        }
+        names[size] = tag;
+        codes.put(tag, size);
+        return size++;
+    }
+    
+    /**
+     * Return the tag for the specified code.
+     * @param code
+     * @return tag
+     */
+    public String name(int code) {
+        return names[code];
+    }
+    
+    /**
+     * Return the number of registered tags, including the empty tag. Codes
+     * run from 0 to one less than the size.
+     * @return size
+     */
+    public int size() {
+        return size;
+    }
+}
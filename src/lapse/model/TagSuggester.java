@@ -0,0 +1,336 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Suggests tags for untagged lines from drawings of the same template which
+ * are already tagged. The lines of the tagged drawings are kept with their
+ * {@link LineFeatures} in a k-d tree, and every untagged line gets the tag
+ * of most of its nearest neighbours, weighted by distance. Untagged lines of
+ * the tagged drawings vote for no tag, so that scribbles outside of the
+ * objects are left alone.
+ * 
+ * @author Burhanuddin
+ */
+public class TagSuggester {
+    
+    public static final int NEIGHBOURS = 7;
+    public static final double MIN_CONFIDENCE = 0.6;
+    public static final double MAX_DISTANCE = 40;
+    
+    private static final int D = LineFeatures.DIMENSIONS;
+    private static final int LEAF_SIZE = 8;
+    private static final int NO_TAG = 0;
+    
+    private final String[] classNames;      // tag of each class, NO_TAG is untagged
+    private final float[] points;           // features in k-d tree order
+    private final int[] classes;
+    private final byte[] splitDims;         // split dimension of the node whose middle is the index
+    private final int size;
+    
+    /**
+     * Constructs a suggester learning from the lines of the specified
+     * drawings. The lines of each drawing must be sorted by time.
+     * @param trainingFiles tagged drawings
+     */
+    public TagSuggester(List<LineStore> trainingFiles) {
+        int total = 0;
+        for (LineStore lines : trainingFiles) {
+            total += lines.size();
+        }
+        size = total;
+        points = new float[size * D];
+        classes = new int[size];
+        List<String> names = new ArrayList<>();
+        Map<String, Integer> classOfTag = new HashMap<>();
+        names.add("");
+        classOfTag.put("", NO_TAG);
+        
+        int offset = 0;
+        for (LineStore lines : trainingFiles) {
+            System.arraycopy(LineFeatures.compute(lines), 0, points, offset * D, lines.size() * D);
+            for (int i = 0; i < lines.size(); i++) {
+                String tag = lines.getTag(i);
+                Integer c = classOfTag.get(tag);
+                if (c == null) {
+                    c = names.size();
+                    names.add(tag);
+                    classOfTag.put(tag, c);
+                }
+                classes[offset + i] = c;
+            }
+            offset += lines.size();
+        }
+        classNames = names.toArray(new String[names.size()]);
+        splitDims = new byte[size];
+        build(0, size);
+    }
+    
+    /**
+     * Return the number of lines learned from.
+     * @return size
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Return suggested tags for the specified lines. Lines without a
+     * confident suggestion are left out. The lines are looked up in
+     * parallel.
+     * @param lines drawing sorted by time
+     * @param indices lines to suggest tags for
+     * @return suggestions
+     */
+    public Suggestions suggest(LineStore lines, int[] indices) {
+        int[] codeOfClass = new int[classNames.length];
+        for (int c = 0; c < classNames.length; c++) {
+            codeOfClass[c] = (c == NO_TAG) ? LineStore.UNTAGGED : lines.tagCode(classNames[c]);
+        }
+        float[] features = LineFeatures.compute(lines);
+        int[] suggested = new int[indices.length];
+        float[] confidences = new float[indices.length];
+        IntStream.range(0, indices.length).parallel().forEach((k) -> {
+            Neighbours neighbours = new Neighbours();
+            if (size > 0) {
+                search(features, indices[k] * D, 0, size, neighbours);
+            }
+            suggested[k] = vote(neighbours, confidences, k);
+        });
+        
+        int count = 0;
+        for (int k = 0; k < indices.length; k++) {
+            if (suggested[k] != NO_TAG) {
+                count++;
+            }
+        }
+        Suggestions suggestions = new Suggestions(count);
+        count = 0;
+        for (int k = 0; k < indices.length; k++) {
+            if (suggested[k] != NO_TAG) {
+                suggestions.indices[count] = indices[k];
+                suggestions.codes[count] = codeOfClass[suggested[k]];
+                suggestions.confidences[count] = confidences[k];
+                count++;
+            }
+        }
+        return suggestions;
+    }
+    
+    /**
+     * Return the class most of the neighbours belong to, weighted by
+     * distance, or NO_TAG if the neighbours are too far or do not agree.
+     */
+    private int vote(Neighbours neighbours, float[] confidences, int k) {
+        if (neighbours.count == 0 || neighbours.distances[0] > MAX_DISTANCE * MAX_DISTANCE) {
+            return NO_TAG;
+        }
+        double total = 0;
+        double[] weights = new double[neighbours.count];
+        for (int n = 0; n < neighbours.count; n++) {
+            weights[n] = 1 / (1 + Math.sqrt(neighbours.distances[n]));
+            total += weights[n];
+        }
+        int best = NO_TAG;
+        double bestWeight = 0;
+        for (int n = 0; n < neighbours.count; n++) {
+            double weight = 0;
+            for (int m = 0; m < neighbours.count; m++) {
+                if (neighbours.classes[m] == neighbours.classes[n]) {
+                    weight += weights[m];
+                }
+            }
+            if (weight > bestWeight) {
+                best = neighbours.classes[n];
+                bestWeight = weight;
+            }
+        }
+        confidences[k] = (float) (bestWeight / total);
+        return (confidences[k] >= MIN_CONFIDENCE) ? best : NO_TAG;
+    }
+    
+    /**
+     * Build the k-d tree over the points from lo to hi: the middle point
+     * splits the others along the dimension in which they spread most.
+     */
+    private void build(int lo, int hi) {
+        if (hi - lo <= LEAF_SIZE) {
+            return;
+        }
+        int dim = 0;
+        float widest = -1;
+        for (int d = 0; d < D; d++) {
+            float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+            for (int i = lo; i < hi; i++) {
+                min = Math.min(min, points[i * D + d]);
+                max = Math.max(max, points[i * D + d]);
+            }
+            if (max - min > widest) {
+                widest = max - min;
+                dim = d;
+            }
+        }
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, dim);
+        splitDims[mid] = (byte) dim;
+        build(lo, mid);
+        build(mid + 1, hi);
+    }
+    
+    /**
+     * Reorder the points from left to right so that the k-th point is in
+     * its sorted place along the dimension, smaller points before it and
+     * larger ones after it.
+     */
+    private void select(int left, int right, int k, int dim) {
+        while (right > left) {
+            int middle = (left + right) >>> 1;
+            float pivot = points[middle * D + dim];
+            int i = left, j = right;
+            while (i <= j) {
+                while (points[i * D + dim] < pivot) {
+                    i++;
+                }
+                while (points[j * D + dim] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+    
+    private void swap(int i, int j) {
+        for (int d = 0; d < D; d++) {
+            float point = points[i * D + d];
+            points[i * D + d] = points[j * D + d];
+            points[j * D + d] = point;
+        }
+        int c = classes[i];
+        classes[i] = classes[j];
+        classes[j] = c;
+    }
+    
+    /**
+     * Find the nearest points to the query among the points from lo to hi.
+     */
+    private void search(float[] query, int q, int lo, int hi, Neighbours neighbours) {
+        if (hi - lo <= LEAF_SIZE) {
+            for (int i = lo; i < hi; i++) {
+                neighbours.offer(distance(query, q, i), classes[i]);
+            }
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        int dim = splitDims[mid];
+        neighbours.offer(distance(query, q, mid), classes[mid]);
+        float diff = query[q + dim] - points[mid * D + dim];
+        if (diff < 0) {
+            search(query, q, lo, mid, neighbours);
+            if (diff * diff < neighbours.worst()) {
+                search(query, q, mid + 1, hi, neighbours);
+            }
+        } else {
+            search(query, q, mid + 1, hi, neighbours);
+            if (diff * diff < neighbours.worst()) {
+                search(query, q, lo, mid, neighbours);
+            }
+        }
+    }
+    
+    /**
+     * Return the squared distance between the query and point i.
+     */
+    private float distance(float[] query, int q, int i) {
+        float sum = 0;
+        for (int d = 0; d < D; d++) {
+            float diff = query[q + d] - points[i * D + d];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+    
+    /**
+     * The nearest points found so far, closest first.
+     */
+    private static class Neighbours {
+        
+        final float[] distances = new float[NEIGHBOURS];
+        final int[] classes = new int[NEIGHBOURS];
+        int count;
+        
+        float worst() {
+            return (count < NEIGHBOURS) ? Float.POSITIVE_INFINITY : distances[count - 1];
+        }
+        
+        void offer(float distance, int c) {
+            if (distance >= worst()) {
+                return;
+            }
+            int n = (count < NEIGHBOURS) ? count++ : count - 1;
+            while (n > 0 && distances[n - 1] > distance) {
+                distances[n] = distances[n - 1];
+                classes[n] = classes[n - 1];
+                n--;
+            }
+            distances[n] = distance;
+            classes[n] = c;
+        }
+    }
+    
+    /**
+     * Suggested tags: the line indices with the tag code suggested for each
+     * line in the drawing and how sure the suggestion is, from
+     * {@link #MIN_CONFIDENCE} to 1.
+     */
+    public static class Suggestions {
+        public final int[] indices;
+        public final int[] codes;
+        public final float[] confidences;
+        
+        Suggestions(int size) {
+            indices = new int[size];
+            codes = new int[size];
+            confidences = new float[size];
+        }
+        
+        public int size() {
+            return indices.length;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import javafx.geometry.Rectangle2D;
+
+/**
+ * An area of the drawing together with the tag given to the lines which lie
+ * entirely inside it.
+ * 
+ * @author Burhanuddin
+ */
+public interface TaggedArea {
+    
+    /**
+     * Return the tag of this area.
+     * @return tag
+     */
+    String getTag();
+    
+    /**
+     * Return the bounding box of this area.
+     * @return bounds
+     */
+    Rectangle2D getBounds();
+    
+    /**
+     * Return the untagged lines which lie entirely in the area.
+     * @param lines
+     * @param spatialIndex index over the lines
+     * @return line indices
+     */
+    int[] untaggedLines(LineStore lines, SpatialIndex spatialIndex);
+    
+    /**
+     * Tag the untagged lines in each tagged area. When a line is in several
+     * areas, the earliest area wins.
+     * @param taggedAreas
+     * @param lines
+     * @param spatialIndex index over the lines
+     * @return indices of the lines tagged by each tagged area
+     */
+    static List<int[]> tagLines(List<? extends TaggedArea> taggedAreas, LineStore lines,
+            SpatialIndex spatialIndex) {
+        List<int[]> taggedLines = new ArrayList<>();
+        for (TaggedArea taggedArea : taggedAreas) {
+            int code = lines.tagCode(taggedArea.getTag());
+            int[] indices = taggedArea.untaggedLines(lines, spatialIndex);
+            for (int i : indices) {
+                lines.setTagCode(i, code);
+            }
+            taggedLines.add(indices);
+        }
+        return taggedLines;
+    }
+}
@@ -0,0 +1,383 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.model;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import javafx.geometry.Rectangle2D;
+
+/**
+ * A tagged polygon, drawn with the lasso or polygon selection. A line lies
+ * in the polygon when both of its ends are inside, it crosses none of the
+ * edges, and every piece of it between the vertices it touches is inside.
+ * The bounding box is divided into a grid of cells which list the
+ * edges passing through them. Cells without edges are known to be entirely
+ * inside or outside, so most lines are decided without looking at any edge.
+ * 
+ * @author Burhanuddin
+ */
+public class TaggedPolygon implements TaggedArea {
+    
+    private static final int MIN_GRID = 16;
+    private static final int MAX_GRID = 128;
+    private static final byte OUTSIDE = 0;
+    private static final byte INSIDE = 1;
+    private static final byte BOUNDARY = 2;
+    
+    private final double[] points;
+    private final String tag;
+    private final Rectangle2D bounds;
+    private final int grid;
+    private final double minX;
+    private final double minY;
+    private final double cellWidth;
+    private final double cellHeight;
+    private final double columnScale;
+    private final double rowScale;
+    private final int[] cellStarts;
+    private final int[] cellEdges;
+    private final byte[] cellStates;
+    
+    /**
+     * Constructs a tagged polygon. The polygon is closed between the last
+     * and the first vertex.
+     * @param points vertices as x, y pairs
+     * @param tag 
+     * @throws IllegalArgumentException if there are less than three vertices
+     */
+    public TaggedPolygon(double[] points, String tag) {
+        if (points.length < 6 || points.length % 2 != 0) {
+            throw new IllegalArgumentException("A polygon needs at least three vertices");
+        }
+        this.points = Arrays.copyOf(points, points.length);
+        this.tag = tag;
+        
+        double left = Double.POSITIVE_INFINITY, top = Double.POSITIVE_INFINITY;
+        double right = Double.NEGATIVE_INFINITY, bottom = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < points.length; i += 2) {
+            left = Math.min(left, points[i]);
+            right = Math.max(right, points[i]);
+            top = Math.min(top, points[i + 1]);
+            bottom = Math.max(bottom, points[i + 1]);
+        }
+        bounds = new Rectangle2D(left, top, right - left, bottom - top);
+        minX = left;
+        minY = top;
+        
+        int edgeCount = getVertexCount();
+        grid = Math.max(MIN_GRID, Math.min(MAX_GRID, (int) Math.ceil(2 * Math.sqrt(edgeCount))));
+        cellWidth = (right > left) ? (right - left) / grid : 1;
+        cellHeight = (bottom > top) ? (bottom - top) / grid : 1;
+        columnScale = 1 / cellWidth;
+        rowScale = 1 / cellHeight;
+        
+        cellStarts = new int[grid * grid + 1];
+        for (int e = 0; e < edgeCount; e++) {
+            for (int row = row(edgeMin(e, 1)); row <= row(edgeMax(e, 1)); row++) {
+                for (int col = firstColumn(e, row); col <= lastColumn(e, row); col++) {
+                    cellStarts[row * grid + col + 1]++;
+                }
+            }
+        }
+        for (int c = 0; c < grid * grid; c++) {
+            cellStarts[c + 1] += cellStarts[c];
+        }
+        cellEdges = new int[cellStarts[grid * grid]];
+        int[] next = Arrays.copyOf(cellStarts, grid * grid);
+        for (int e = 0; e < edgeCount; e++) {
+            for (int row = row(edgeMin(e, 1)); row <= row(edgeMax(e, 1)); row++) {
+                for (int col = firstColumn(e, row); col <= lastColumn(e, row); col++) {
+                    cellEdges[next[row * grid + col]++] = e;
+                }
+            }
+        }
+        
+        // a cell's state only depends on the cells to its right
+        cellStates = new byte[grid * grid];
+        for (int row = 0; row < grid; row++) {
+            for (int col = grid - 1; col >= 0; col--) {
+                int c = row * grid + col;
+                if (cellStarts[c] < cellStarts[c + 1]) {
+                    cellStates[c] = BOUNDARY;
+                } else {
+                    double x = minX + (col + 0.5) * cellWidth, y = minY + (row + 0.5) * cellHeight;
+                    cellStates[c] = locate(x, y, row, col) ? INSIDE : OUTSIDE;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Return the vertices as x, y pairs.
+     * @return points
+     */
+    public double[] getPoints() {
+        return Arrays.copyOf(points, points.length);
+    }
+    
+    /**
+     * Return the number of vertices.
+     * @return vertexCount
+     */
+    public int getVertexCount() {
+        return points.length / 2;
+    }
+    
+    @Override
+    public String getTag() {
+        return tag;
+    }
+    
+    @Override
+    public Rectangle2D getBounds() {
+        return bounds;
+    }
+    
+    /**
+     * Return the untagged lines which lie entirely in the polygon. The
+     * spatial index culls the lines outside the bounding box before the
+     * exact test.
+     * @param lines
+     * @param spatialIndex index over the lines
+     * @return line indices
+     */
+    @Override
+    public int[] untaggedLines(LineStore lines, SpatialIndex spatialIndex) {
+        IntStream.Builder indices = IntStream.builder();
+        spatialIndex.queryContained(bounds, (i) -> {
+            if (!lines.isTagged(i) && containsSegment(lines.getStartX(i), lines.getStartY(i),
+                    lines.getEndX(i), lines.getEndY(i))) {
+                indices.add(i);
+            }
+        });
+        return indices.build().toArray();
+    }
+    
+    /**
+     * Return true if the point is inside the polygon, using the even-odd
+     * rule.
+     * @param x
+     * @param y
+     * @return contains
+     */
+    public boolean contains(double x, double y) {
+        if (!bounds.contains(x, y)) {
+            return false;
+        }
+        int row = row(y), col = column(x);
+        byte state = cellStates[row * grid + col];
+        return (state == BOUNDARY) ? locate(x, y, row, col) : (state == INSIDE);
+    }
+    
+    /**
+     * Return true if the segment lies entirely in the polygon. A segment
+     * which touches the boundary, e.g. at a reflex vertex of a concave
+     * polygon, along an edge or with an end on an edge, may leave the
+     * polygon there without properly crossing an edge, so the pieces between
+     * the vertices it touches are then tested at their midpoints.
+     * @param x1
+     * @param y1
+     * @param x2
+     * @param y2
+     * @return containsSegment
+     */
+    public boolean containsSegment(double x1, double y1, double x2, double y2) {
+        if (!contains(x1, y1) || !contains(x2, y2)) {
+            return false;
+        }
+        double dx = x2 - x1, dy = y2 - y1, length2 = dx * dx + dy * dy;
+        boolean touching = false;
+        double[] touches = null;        // positions along the segment of the vertices on it
+        int touchCount = 0;
+        int col0 = column(Math.min(x1, x2)), col1 = column(Math.max(x1, x2));
+        int row1 = row(Math.max(y1, y2));
+        for (int row = row(Math.min(y1, y2)); row <= row1; row++) {
+            for (int c = row * grid + col0; c <= row * grid + col1; c++) {
+                for (int k = cellStarts[c]; k < cellStarts[c + 1]; k++) {
+                    int e = cellEdges[k];
+                    double vx = points[2 * e], vy = points[2 * e + 1];
+                    double wx = points[next(e)], wy = points[next(e) + 1];
+                    if (crosses(x1, y1, x2, y2, vx, vy, wx, wy)) {
+                        return false;
+                    }
+                    if (onSegment(vx, vy, wx, wy, x1, y1) || onSegment(vx, vy, wx, wy, x2, y2)) {
+                        touching = true;
+                    }
+                    // the end of the edge is the start of the next one, so only the start is tested
+                    if (length2 > 0 && onSegment(x1, y1, x2, y2, vx, vy)) {
+                        touching = true;
+                        if (touches == null) {
+                            touches = new double[4];
+                        } else if (touchCount == touches.length) {
+                            touches = Arrays.copyOf(touches, 2 * touchCount);
+                        }
+                        touches[touchCount++] = ((vx - x1) * dx + (vy - y1) * dy) / length2;
+                    }
+                }
+            }
+        }
+        if (!touching) {
+            return true;
+        }
+        if (touches != null) {
+            Arrays.sort(touches, 0, touchCount);
+        }
+        double previous = 0;
+        for (int i = 0; i <= touchCount; i++) {
+            double t = (i < touchCount) ? touches[i] : 1;
+            if (t > previous) {
+                double mid = (previous + t) / 2;
+                if (!contains(x1 + mid * dx, y1 + mid * dy)) {
+                    return false;
+                }
+                previous = t;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Return true if the point in the specified cell is inside the polygon.
+     * A ray is cast to the right up to the first cell without edges, whose
+     * state is already known, and the edges it crosses are counted. Each
+     * crossing is only counted in the cell where it happens.
+     */
+    private boolean locate(double x, double y, int row, int col) {
+        boolean inside = false;
+        for (int c = col; c < grid; c++) {
+            int cell = row * grid + c;
+            if (c > col && cellStates[cell] != BOUNDARY) {
+                return inside != (cellStates[cell] == INSIDE);
+            }
+            for (int k = cellStarts[cell]; k < cellStarts[cell + 1]; k++) {
+                int e = cellEdges[k];
+                double ex1 = points[2 * e], ey1 = points[2 * e + 1];
+                double ex2 = points[next(e)], ey2 = points[next(e) + 1];
+                if ((ey1 > y) != (ey2 > y)) {
+                    double crossX = ex1 + (y - ey1) * (ex2 - ex1) / (ey2 - ey1);
+                    if (x < crossX && column(crossX) == c) {
+                        inside = !inside;
+                    }
+                }
+            }
+        }
+        return inside;
+    }
+    
+    /**
+     * Return the grid column containing the x coordinate, clamped to the
+     * bounds.
+     */
+    private int column(double x) {
+        int col = (int) ((x - minX) * columnScale);
+        return Math.max(0, Math.min(grid - 1, col));
+    }
+    
+    /**
+     * Return the grid row containing the y coordinate, clamped to the
+     * bounds.
+     */
+    private int row(double y) {
+        int row = (int) ((y - minY) * rowScale);
+        return Math.max(0, Math.min(grid - 1, row));
+    }
+    
+    /**
+     * Return the first grid column which edge e passes through in the row.
+     */
+    private int firstColumn(int e, int row) {
+        if (points[2 * e + 1] == points[next(e) + 1]) {
+            return column(edgeMin(e, 0));
+        }
+        return column(Math.min(edgeX(e, row), edgeX(e, row + 1)));
+    }
+    
+    /**
+     * Return the last grid column which edge e passes through in the row.
+     */
+    private int lastColumn(int e, int row) {
+        if (points[2 * e + 1] == points[next(e) + 1]) {
+            return column(edgeMax(e, 0));
+        }
+        return column(Math.max(edgeX(e, row), edgeX(e, row + 1)));
+    }
+    
+    /**
+     * Return the x coordinate of the sloped edge e at the top of the grid
+     * row, with the row clamped to the vertical extent of the edge.
+     */
+    private double edgeX(int e, int row) {
+        double x1 = points[2 * e], y1 = points[2 * e + 1];
+        double x2 = points[next(e)], y2 = points[next(e) + 1];
+        double y = Math.max(Math.min(y1, y2), Math.min(Math.max(y1, y2), minY + row * cellHeight));
+        return x1 + (y - y1) * (x2 - x1) / (y2 - y1);
+    }
+    
+    /**
+     * Return the index in points of the vertex ending edge e.
+     */
+    private int next(int e) {
+        return (e + 1 < getVertexCount()) ? 2 * (e + 1) : 0;
+    }
+    
+    /**
+     * Return the smaller coordinate of edge e, x for axis 0 and y for axis 1.
+     */
+    private double edgeMin(int e, int axis) {
+        return Math.min(points[2 * e + axis], points[next(e) + axis]);
+    }
+    
+    /**
+     * Return the larger coordinate of edge e, x for axis 0 and y for axis 1.
+     */
+    private double edgeMax(int e, int axis) {
+        return Math.max(points[2 * e + axis], points[next(e) + axis]);
+    }
+    
+    /**
+     * Return true if the two segments properly cross each other.
+     */
+    private static boolean crosses(double ax, double ay, double bx, double by, double cx, double cy,
+            double dx, double dy) {
+        double d1 = cross(ax, ay, bx, by, cx, cy), d2 = cross(ax, ay, bx, by, dx, dy);
+        double d3 = cross(cx, cy, dx, dy, ax, ay), d4 = cross(cx, cy, dx, dy, bx, by);
+        return ((d1 > 0 && d2 < 0) || (d1 < 0 && d2 > 0)) && ((d3 > 0 && d4 < 0) || (d3 < 0 && d4 > 0));
+    }
+    
+    /**
+     * Return true if p lies on the segment from a to b, ends included.
+     */
+    private static boolean onSegment(double ax, double ay, double bx, double by, double px, double py) {
+        return cross(ax, ay, bx, by, px, py) == 0
+                && Math.min(ax, bx) <= px && px <= Math.max(ax, bx)
+                && Math.min(ay, by) <= py && py <= Math.max(ay, by);
+    }
+    
+    /**
+     * Return the signed area of a, b, p: positive when p is left of a to b.
+     */
+    private static double cross(double ax, double ay, double bx, double by, double px, double py) {
+        return (bx - ax) * (py - ay) - (by - ay) * (px - ax);
+    }
+}
@@ -23,13 +23,14 @@
  */
 package lapse.model;
 
+import java.util.stream.IntStream;
 import javafx.geometry.Rectangle2D;
 
 /**
  *
  * @author Burhanuddin
  */
-public class TaggedRectangle {
+public class TaggedRectangle implements TaggedArea {
     public Rectangle2D rect;
     public String tag;
     
@@ -42,4 +43,31 @@ public class TaggedRectangle {
         this.rect = rect;
         this.tag = tag;
     }
+    
+    @Override
+    public String getTag() {
+        return tag;
+    }
+    
+    @Override
+    public Rectangle2D getBounds() {
+        return rect;
+    }
+    
+    /**
+     * Return the untagged lines which lie entirely in the rectangle.
+     * @param lines
+     * @param spatialIndex index over the lines
+     * @return line indices
+     */
+    @Override
+    public int[] untaggedLines(LineStore lines, SpatialIndex spatialIndex) {
+        IntStream.Builder indices = IntStream.builder();
+        spatialIndex.queryContained(rect, (i) -> {
+            if (!lines.isTagged(i)) {
+                indices.add(i);
+            }
+        });
+        return indices.build().toArray();
+    }
 }
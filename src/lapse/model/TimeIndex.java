@@ -0,0 +1,244 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.model;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Index over the drawing times of the lines in a {@link LineStore} sorted
+ * by starting time. Lines started by a time are found by binary search over
+ * the starting times. To find the lines still being drawn, the lines are
+ * kept in a centered interval tree: each node holds the lines being drawn at
+ * its centre time, once by starting time and once by ending time, and the
+ * lines which ended before or started after the centre go to its children.
+ * Both queries take logarithmic time plus the time to report the lines. The
+ * index is built once after the store is loaded and sorted, because it
+ * refers to lines by index.
+ * 
+ * @author Burhanuddin
+ */
+public class TimeIndex {
+    
+    private final LineStore lines;
+    private final int size;
+    private final long endTime;
+    
+    // nodes of the interval tree in depth-first order, the root is node 0
+    private long[] centers;
+    private int[] lefts;            // left child of each node, or -1
+    private int[] rights;           // right child of each node, or -1
+    private int[] nodeStarts;       // lines of node n are at nodeStarts[n] up to nodeStarts[n + 1]
+    private int nodeCount;
+    private final int[] byStart;    // lines of each node by starting time
+    private final int[] byEnd;      // lines of each node, latest ending time first
+    
+    /**
+     * Constructs an empty index.
+     */
+    public TimeIndex() {
+        this(new LineStore(0));
+    }
+    
+    /**
+     * Build the index over all lines in the store.
+     * @param lines lines sorted by starting time
+     */
+    public TimeIndex(LineStore lines) {
+        this.lines = lines;
+        size = lines.size();
+        
+        long maxEnd = 0;
+        int[] items = new int[size];
+        for (int i = 0; i < size; i++) {
+            items[i] = i;
+            maxEnd = (i == 0) ? lines.getTimeEnd(i) : Math.max(maxEnd, lines.getTimeEnd(i));
+        }
+        endTime = maxEnd;
+        
+        centers = new long[size];
+        lefts = new int[size];
+        rights = new int[size];
+        nodeStarts = new int[size + 1];
+        byStart = new int[size];
+        byEnd = new int[size];
+        build(items, new int[size], 0, size);
+        centers = Arrays.copyOf(centers, nodeCount);
+        lefts = Arrays.copyOf(lefts, nodeCount);
+        rights = Arrays.copyOf(rights, nodeCount);
+        nodeStarts = Arrays.copyOf(nodeStarts, nodeCount + 1);
+    }
+    
+    /**
+     * Build the subtree over the lines in the specified range of items,
+     * which are in order of starting time. The centre is the starting time
+     * of the middle line, so both children get at most half of the lines.
+     * The middle line always stays in the node, even if it ends before it
+     * starts, so that every node takes at least one line.
+     * @return node, or -1 if there are no lines
+     */
+    private int build(int[] items, int[] buffer, int from, int to) {
+        if (from == to) {
+            return -1;
+        }
+        int middle = (from + to) >>> 1;
+        long center = lines.getTimeStart(items[middle]);
+        int node = nodeCount++;
+        centers[node] = center;
+        
+        // keep the order while moving the lines ending before the centre to
+        // the front and the lines starting after it to the back
+        int before = from, at = nodeStarts[node], after = 0;
+        for (int i = from; i < to; i++) {
+            int line = items[i];
+            if (lines.getTimeStart(line) > center) {
+                buffer[after++] = line;
+            } else if (lines.getTimeEnd(line) < center && i != middle) {
+                items[before++] = line;
+            } else {
+                byStart[at] = line;
+                byEnd[at++] = line;
+            }
+        }
+        System.arraycopy(buffer, 0, items, to - after, after);
+        nodeStarts[node + 1] = at;
+        sortByEnd(nodeStarts[node], at, buffer);
+        
+        lefts[node] = build(items, buffer, from, before);
+        rights[node] = build(items, buffer, to - after, to);
+        return node;
+    }
+    
+    /**
+     * Stable merge sort of part of byEnd, latest ending time first.
+     */
+    private void sortByEnd(int from, int to, int[] buffer) {
+        if (to - from < 2) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        sortByEnd(from, mid, buffer);
+        sortByEnd(mid, to, buffer);
+        if (lines.getTimeEnd(byEnd[mid - 1]) >= lines.getTimeEnd(byEnd[mid])) {
+            return;     // already in order
+        }
+        System.arraycopy(byEnd, from, buffer, 0, mid - from);
+        int i = 0, j = mid, k = from;
+        while (i < mid - from && j < to) {
+            byEnd[k++] = (lines.getTimeEnd(byEnd[j]) > lines.getTimeEnd(buffer[i])) ? byEnd[j++] : buffer[i++];
+        }
+        while (i < mid - from) {
+            byEnd[k++] = buffer[i++];
+        }
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Return the time the first line started to be drawn.
+     * @return time, or 0 if there are no lines
+     */
+    public long getStartTime() {
+        return (size > 0) ? lines.getTimeStart(0) : 0;
+    }
+    
+    /**
+     * Return the time the last line ended.
+     * @return time, or 0 if there are no lines
+     */
+    public long getEndTime() {
+        return endTime;
+    }
+    
+    /**
+     * Return the number of lines which started to be drawn at or before the
+     * specified time. These are the lines at indices below the returned
+     * value.
+     * @param time
+     * @return count
+     */
+    public int countStartedBy(long time) {
+        int low = 0, high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (lines.getTimeStart(mid) <= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    /**
+     * Report every line which was being drawn at the specified time, that
+     * is started at or before it and ended at or after it. Lines are
+     * reported in no particular order.
+     * @param time
+     * @param action called with the index of each line
+     */
+    public void queryActive(long time, IntConsumer action) {
+        int node = (size > 0) ? 0 : -1;
+        while (node >= 0) {
+            int from = nodeStarts[node], to = nodeStarts[node + 1];
+            if (time < centers[node]) {
+                // every line of the node ends after the time
+                for (int i = from; i < to && lines.getTimeStart(byStart[i]) <= time; i++) {
+                    action.accept(byStart[i]);
+                }
+                node = lefts[node];
+            } else {
+                // every line of the node started by the time
+                for (int i = from; i < to && lines.getTimeEnd(byEnd[i]) >= time; i++) {
+                    action.accept(byEnd[i]);
+                }
+                node = (time > centers[node]) ? rights[node] : -1;
+            }
+        }
+    }
+    
+    /**
+     * Report every line which was being drawn at some time between the
+     * specified times, that is started at or before the end and ended at or
+     * after the start. The lines being drawn at the start are reported first
+     * in no particular order, then the lines started later in order of
+     * starting time.
+     * @param from start of the time range
+     * @param to end of the time range
+     * @param action called with the index of each line
+     */
+    public void queryOverlapping(long from, long to, IntConsumer action) {
+        if (size > 0 && from <= to) {
+            queryActive(from, action);
+            int limit = countStartedBy(to);
+            for (int i = countStartedBy(from); i < limit; i++) {
+                if (lines.getTimeEnd(i) >= from) {      // only fails if it ends before it starts
+                    action.accept(i);
+                }
+            }
+        }
+    }
+}
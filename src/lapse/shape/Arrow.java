@@ -23,11 +23,11 @@
  */
 package lapse.shape;
 
-import javafx.geometry.Point2D;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.CubicCurve;
 import javafx.scene.shape.Polygon;
 import javafx.scene.transform.Rotate;
+import lapse.util.CurveKernel;
 
 /**
  *
@@ -38,6 +38,9 @@ public class Arrow extends Polygon {
     public float t;
     CubicCurve curve;
     Rotate rotateZ;
+    private final double[] points = new double[4];
+    private final double[] controls = new double[4];
+    private final double[] pose = new double[3];
     
     /**
      * Creates new instance of arrow with default arrow shape.
@@ -77,54 +80,18 @@ public class Arrow extends Polygon {
      * Update position and rotation.
      */
     public void update() {
-        double size = Math.max(curve.getBoundsInLocal().getWidth(), curve.getBoundsInLocal().getHeight());
-        double scale = size / 4d;
-
-        Point2D ori = eval(curve, t);
-        Point2D tan = evalDt(curve, t).normalize().multiply(scale);
-
-        setTranslateX(ori.getX());
-        setTranslateY(ori.getY());
-
-        double angle = Math.atan2(tan.getY(), tan.getX());
-        angle = Math.toDegrees(angle);
+        points[0] = curve.getStartX();
+        points[1] = curve.getStartY();
+        points[2] = curve.getEndX();
+        points[3] = curve.getEndY();
+        controls[0] = curve.getControlX1();
+        controls[1] = curve.getControlY1();
+        controls[2] = curve.getControlX2();
+        controls[3] = curve.getControlY2();
+        CurveKernel.computeArrows(points, controls, 0, 1, t, pose);
         
-        double offset = +90;
-
-        rotateZ.setAngle(angle + offset);    
-    }
-    
-    /**
-    * Evaluate the cubic curve at a parameter 0<=t<=1, returns a Point2D
-    * @param c the CubicCurve 
-    * @param t param between 0 and 1
-    * @return a Point2D 
-    */
-    private Point2D eval(CubicCurve c, float t){
-        return new Point2D(Math.pow(1-t, 3) * c.getStartX() +
-                3 * t * Math.pow(1-t, 2)* c.getControlX1() +
-                3 * (1-t) * t * t * c.getControlX2() +
-                Math.pow(t, 3) * c.getEndX(),
-                Math.pow(1-t, 3) * c.getStartY() +
-                3 * t * Math.pow(1-t, 2) * c.getControlY1() +
-                3 * (1-t) * t * t * c.getControlY2() +
-                Math.pow(t, 3) * c.getEndY());
-    }
-   
-   /**
-    * Evaluate the tangent of the cubic curve at a parameter 0<=t<=1, returns a Point2D
-    * @param c the CubicCurve 
-    * @param t param between 0 and 1
-    * @return a Point2D 
-    */
-    private Point2D evalDt(CubicCurve c, float t){
-        return new Point2D(-3 * Math.pow(1-t, 2) * c.getStartX() +
-                3 * (Math.pow(1-t, 2) - 2 * t * (1-t)) * c.getControlX1() +
-                3 * ((1-t) * 2 * t - t * t) * c.getControlX2() +
-                3 * Math.pow(t, 2) * c.getEndX(),
-                -3 * Math.pow(1-t, 2) * c.getStartY() +
-                3 * (Math.pow(1-t, 2) - 2 * t * (1-t)) * c.getControlY1() +
-                3 * ((1-t) * 2 * t - t * t) * c.getControlY2() +
-                3 * Math.pow(t, 2) * c.getEndY());
+        setTranslateX(pose[0]);
+        setTranslateY(pose[1]);
+        rotateZ.setAngle(Math.toDegrees(pose[2]));
     }
 }
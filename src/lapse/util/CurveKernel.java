@@ -0,0 +1,191 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.util;
+
+/**
+ * Geometry of sequences of cubic curves over packed arrays. Points are
+ * stored as x and y per point, control points as controlX1, controlY1,
+ * controlX2 and controlY2 per curve, and arrows as x, y and angle per
+ * curve, where curve {@code c} runs from point {@code c} to point
+ * {@code c + 1}. Nothing is allocated, and each direction, sine and cosine
+ * is computed once per point instead of once per curve using it. The
+ * results are the same as those of {@link GT} on curve nodes.
+ * 
+ * @author Burhanuddin
+ */
+public class CurveKernel {
+    
+    /** Distance of the control points from the ends, relative to the curve length. */
+    public static final double RATIO = 0.1;
+    
+    private CurveKernel() {
+    }
+    
+    /**
+     * Return the direction from the end of a curve to its start, as used by
+     * {@link #angle(double, double)}.
+     * @param startX
+     * @param startY
+     * @param endX
+     * @param endY
+     * @return direction in radians
+     */
+    public static double direction(double startX, double startY, double endX, double endY) {
+        return Math.atan2(startY - endY, startX - endX);
+    }
+    
+    /**
+     * Return angle between two curves, the same as
+     * {@link GT#angle(javafx.scene.shape.CubicCurve, javafx.scene.shape.CubicCurve)}.
+     * @param direction1 direction of the first curve
+     * @param direction2 direction of the second curve
+     * @return angle
+     */
+    public static double angle(double direction1, double direction2) {
+        double angle = direction1 - direction2;
+        if (angle < 0) {    // negative (clockwise)
+            return (angle < -Math.PI) ? angle + Math.PI : Math.abs(angle + Math.PI);
+        } else {            // positive (anti-clockwise)
+            return (angle > Math.PI) ? angle - Math.PI : -Math.abs(angle - Math.PI);
+        }
+    }
+    
+    /**
+     * Compute the control points of a range of curves of a sequence. Each
+     * control point is moved {@link #RATIO} of the curve towards the other
+     * end and then turned by half the angle the sequence bends at its
+     * point, so that the curves join smoothly. Sequences of less than three
+     * curves stay straight.
+     * @param points x and y of each point
+     * @param pointCount number of points
+     * @param from first curve
+     * @param to curve after the last curve
+     * @param controls receives the control points of the curves
+     */
+    public static void computeControls(double[] points, int pointCount, int from, int to, double[] controls) {
+        int curveCount = pointCount - 1;
+        if (curveCount < 3) {
+            for (int c = from; c < to; c++) {
+                controls[c * 4] = points[c * 2];
+                controls[c * 4 + 1] = points[c * 2 + 1];
+                controls[c * 4 + 2] = points[c * 2 + 2];
+                controls[c * 4 + 3] = points[c * 2 + 3];
+            }
+            return;
+        }
+        if (from >= to) {
+            return;
+        }
+        // turn of the first control point, from the bend at the start point
+        double direction = direction(points, from);
+        double rotateStart = 0, cosStart = 1, sinStart = 0;
+        if (from > 0) {
+            double angle = angle(direction(points, from - 1), direction);
+            double theta = (Math.PI - Math.abs(angle)) / 2;
+            rotateStart = (angle < 0) ? theta : -theta;
+            cosStart = Math.cos(theta);
+            sinStart = Math.sin(theta);
+        }
+        for (int c = from; c < to; c++) {
+            double x1 = points[c * 2], y1 = points[c * 2 + 1];
+            double x2 = points[c * 2 + 2], y2 = points[c * 2 + 3];
+            double cx1 = x1 + (x2 - x1) * RATIO, cy1 = y1 + (y2 - y1) * RATIO;
+            double cx2 = x2 + (x1 - x2) * RATIO, cy2 = y2 + (y1 - y2) * RATIO;
+            
+            if (c > 0) {
+                double dx = cx1 - x1, dy = cy1 - y1;
+                if (rotateStart < 0) {
+                    cx1 = x1 + cosStart * dx + sinStart * dy;
+                    cy1 = y1 - sinStart * dx + cosStart * dy;
+                } else {
+                    cx1 = x1 + cosStart * dx - sinStart * dy;
+                    cy1 = y1 + sinStart * dx + cosStart * dy;
+                }
+            }
+            
+            if (c < curveCount - 1) {
+                // the bend at the end point turns this curve and the next
+                double nextDirection = direction(points, c + 1);
+                double angle = angle(direction, nextDirection);
+                double theta = (Math.PI - Math.abs(angle)) / 2;
+                double cos = Math.cos(theta), sin = Math.sin(theta);
+                double rotateEnd = (angle < 0) ? -theta : theta;
+                double dx = cx2 - x2, dy = cy2 - y2;
+                if (rotateEnd < 0) {
+                    cx2 = x2 + cos * dx + sin * dy;
+                    cy2 = y2 - sin * dx + cos * dy;
+                } else {
+                    cx2 = x2 + cos * dx - sin * dy;
+                    cy2 = y2 + sin * dx + cos * dy;
+                }
+                direction = nextDirection;
+                rotateStart = (angle < 0) ? theta : -theta;
+                cosStart = cos;
+                sinStart = sin;
+            }
+            
+            controls[c * 4] = cx1;
+            controls[c * 4 + 1] = cy1;
+            controls[c * 4 + 2] = cx2;
+            controls[c * 4 + 3] = cy2;
+        }
+    }
+    
+    /**
+     * Compute the pose of the arrows on a range of curves: the point at a
+     * parameter of each curve and the rotation of an arrow pointing up so
+     * that it points along the curve there.
+     * @param points x and y of each point
+     * @param controls control points of each curve
+     * @param from first curve
+     * @param to curve after the last curve
+     * @param t parameter between 0 and 1
+     * @param arrows receives x, y and angle in radians of the arrows
+     */
+    public static void computeArrows(double[] points, double[] controls, int from, int to, double t,
+            double[] arrows) {
+        double u = 1 - t;
+        // Bernstein weights of the point and of the tangent
+        double b0 = u * u * u, b1 = 3 * t * u * u, b2 = 3 * u * t * t, b3 = t * t * t;
+        double d0 = -3 * u * u, d1 = 3 * (u * u - 2 * t * u), d2 = 3 * (2 * u * t - t * t), d3 = 3 * t * t;
+        for (int c = from; c < to; c++) {
+            double x0 = points[c * 2], y0 = points[c * 2 + 1];
+            double x1 = controls[c * 4], y1 = controls[c * 4 + 1];
+            double x2 = controls[c * 4 + 2], y2 = controls[c * 4 + 3];
+            double x3 = points[c * 2 + 2], y3 = points[c * 2 + 3];
+            arrows[c * 3] = b0 * x0 + b1 * x1 + b2 * x2 + b3 * x3;
+            arrows[c * 3 + 1] = b0 * y0 + b1 * y1 + b2 * y2 + b3 * y3;
+            double dx = d0 * x0 + d1 * x1 + d2 * x2 + d3 * x3;
+            double dy = d0 * y0 + d1 * y1 + d2 * y2 + d3 * y3;
+            arrows[c * 3 + 2] = Math.atan2(dy, dx) + Math.PI / 2;
+        }
+    }
+    
+    /**
+     * Return the direction of a curve between two points.
+     */
+    private static double direction(double[] points, int c) {
+        return direction(points[c * 2], points[c * 2 + 1], points[c * 2 + 2], points[c * 2 + 3]);
+    }
+}
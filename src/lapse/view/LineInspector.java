@@ -0,0 +1,211 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.view;
+
+import java.util.function.Consumer;
+import javafx.scene.Node;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.control.Label;
+import javafx.scene.control.Menu;
+import javafx.scene.control.MenuItem;
+import javafx.scene.control.SeparatorMenuItem;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Line;
+import lapse.MainApp;
+import lapse.model.LineStore;
+import lapse.model.TagEdit;
+import lapse.model.TagSuggester;
+
+/**
+ * Highlights the line nearest to the mouse and shows its id, times and tag.
+ * The nearest line is found with the spatial index on every mouse move. A
+ * click on the highlighted line opens a menu to retag just that line, or to
+ * accept the tag suggested for it.
+ * 
+ * @author Burhanuddin
+ */
+public class LineInspector {
+    
+    /** Largest distance in screen pixels at which a line is hit. */
+    public static final double HIT_DISTANCE = 6;
+    
+    private static final double HIGHLIGHT_WIDTH = 3;     // screen pixels
+    
+    private final MainApp mainApp;
+    private final Consumer<TagEdit> editor;
+    private final Label infoLabel;
+    private final Line highlight = new Line();
+    private final ContextMenu retagMenu = new ContextMenu();
+    private SuggestionLayer suggestionLayer;
+    private int hovered = -1;
+    
+    /**
+     * Constructs an inspector for the lines of the main application.
+     * @param mainApp
+     * @param editor applies a tag edit with undo
+     * @param infoLabel label to show the details of the line in
+     */
+    public LineInspector(MainApp mainApp, Consumer<TagEdit> editor, Label infoLabel) {
+        this.mainApp = mainApp;
+        this.editor = editor;
+        this.infoLabel = infoLabel;
+        highlight.setStroke(Color.ORANGE);
+        highlight.setMouseTransparent(true);
+        highlight.setVisible(false);
+        infoLabel.setVisible(false);
+    }
+    
+    /**
+     * Set the layer whose suggested tags are shown and can be accepted.
+     * @param suggestionLayer 
+     */
+    public void setSuggestionLayer(SuggestionLayer suggestionLayer) {
+        this.suggestionLayer = suggestionLayer;
+    }
+    
+    /**
+     * Return the node highlighting the line, to be added to the zoomed
+     * group of the drawing.
+     * @return highlight
+     */
+    public Node getHighlight() {
+        return highlight;
+    }
+    
+    /**
+     * Return the highlighted line.
+     * @return line index, or -1 if none
+     */
+    public int getHovered() {
+        return hovered;
+    }
+    
+    /**
+     * Highlight the line nearest to the mouse.
+     * @param x x-coordinate in the drawing
+     * @param y y-coordinate in the drawing
+     * @param zoom current zoom, to hit lines within a fixed screen distance
+     */
+    public void hover(double x, double y, double zoom) {
+        LineStore lines = mainApp.getLineStore();
+        int line = mainApp.getSpatialIndex().nearest(lines, x, y, HIT_DISTANCE / zoom);
+        if (line < 0) {
+            clear();
+            return;
+        }
+        highlight.setStrokeWidth(HIGHLIGHT_WIDTH / zoom);
+        if (line != hovered) {
+            hovered = line;
+            highlight.setStartX(lines.getStartX(line));
+            highlight.setStartY(lines.getStartY(line));
+            highlight.setEndX(lines.getEndX(line));
+            highlight.setEndY(lines.getEndY(line));
+            highlight.setVisible(true);
+            showInfo();
+        }
+    }
+    
+    /**
+     * Remove the highlight.
+     */
+    public void clear() {
+        hovered = -1;
+        highlight.setVisible(false);
+        infoLabel.setVisible(false);
+    }
+    
+    /**
+     * Show the id, times and tag of the highlighted line, and the suggested
+     * tag of an untagged line.
+     */
+    private void showInfo() {
+        LineStore lines = mainApp.getLineStore();
+        String info = "Line " + lines.getId(hovered)
+                + "   Time " + lines.getTimeStart(hovered) + " - " + lines.getTimeEnd(hovered)
+                + "   " + (lines.isTagged(hovered) ? "Tag: " + lines.getTag(hovered) : "Untagged");
+        int k = findSuggestion(hovered);
+        if (k >= 0) {
+            TagSuggester.Suggestions suggestions = suggestionLayer.getSuggestions();
+            info += "   Suggested: " + lines.tagName(suggestions.codes[k])
+                    + " (" + Math.round(100 * suggestions.confidences[k]) + "%)";
+        }
+        infoLabel.setText(info);
+        infoLabel.setVisible(true);
+    }
+    
+    /**
+     * Return the position of the shown suggestion for the line, or -1.
+     */
+    private int findSuggestion(int line) {
+        return (suggestionLayer != null && suggestionLayer.isVisible()) ? suggestionLayer.find(line) : -1;
+    }
+    
+    /**
+     * Open a menu with the tags of every drawing type to retag the
+     * highlighted line.
+     * @param owner node the menu belongs to
+     * @param screenX
+     * @param screenY 
+     */
+    public void showRetagMenu(Node owner, double screenX, double screenY) {
+        if (hovered < 0) {
+            return;
+        }
+        int line = hovered;
+        LineStore lines = mainApp.getLineStore();
+        retagMenu.getItems().clear();
+        int k = findSuggestion(line);
+        if (k >= 0) {
+            String suggested = lines.tagName(suggestionLayer.getSuggestions().codes[k]);
+            MenuItem accept = new MenuItem("Accept Suggestion: " + suggested);
+            accept.setOnAction((event) -> retag(line, suggested));
+            retagMenu.getItems().addAll(accept, new SeparatorMenuItem());
+        }
+        for (String drawingType : mainApp.getDrawingTypeList()) {
+            Menu typeMenu = new Menu(drawingType);
+            for (String tag : mainApp.getTags().get(drawingType)) {
+                MenuItem item = new MenuItem(tag);
+                item.setDisable(tag.equals(lines.getTag(line)));
+                item.setOnAction((event) -> retag(line, tag));
+                typeMenu.getItems().add(item);
+            }
+            retagMenu.getItems().add(typeMenu);
+        }
+        MenuItem untag = new MenuItem("Remove Tag");
+        untag.setDisable(!lines.isTagged(line));
+        untag.setOnAction((event) -> retag(line, ""));
+        retagMenu.getItems().addAll(new SeparatorMenuItem(), untag);
+        retagMenu.show(owner, screenX, screenY);
+    }
+    
+    /**
+     * Set the tag of one line, with undo.
+     */
+    private void retag(int line, String tag) {
+        editor.accept(TagEdit.tag(mainApp.getLineStore(), new int[]{line}, tag));
+        if (line == hovered) {
+            showInfo();
+        }
+    }
+}
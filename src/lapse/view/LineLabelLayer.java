@@ -0,0 +1,189 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.view;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import lapse.MainApp;
+import lapse.model.LineStore;
+import lapse.model.SpatialIndex;
+import lapse.model.TagHistory;
+
+/**
+ * Labels of tagged lines, drawn on the viewport canvas instead of one text
+ * node per line. Saved tags are red and unsaved tags are blue, each at the
+ * middle of its line. Only labels inside the viewport are drawn. When
+ * zoomed out, or when too many labels are visible, labels of the same tag
+ * close to each other are merged into one label with a count.
+ * 
+ * @author Burhanuddin
+ */
+public class LineLabelLayer implements ViewportCanvas.Layer {
+    
+    private static final double CLUSTER_ZOOM = 1.0;
+    private static final int MAX_LABELS = 2000;
+    static final double CLUSTER_CELL = 64;    // pixels
+    
+    private final MainApp mainApp;
+    private boolean visible = true;
+    private int lineLimit = Integer.MAX_VALUE;
+    
+    /**
+     * Constructs a layer for the labels of the main application data.
+     * @param mainApp 
+     */
+    public LineLabelLayer(MainApp mainApp) {
+        this.mainApp = mainApp;
+    }
+    
+    public boolean isVisible() {
+        return visible;
+    }
+    
+    public void setVisible(boolean visible) {
+        this.visible = visible;
+    }
+    
+    /**
+     * Only draw the labels of the first lines, e.g. while replaying.
+     * @param lineLimit number of first lines
+     */
+    public void setLineLimit(int lineLimit) {
+        this.lineLimit = lineLimit;
+    }
+    
+    @Override
+    public void draw(GraphicsContext gc, Rectangle2D visibleRect, double zoom) {
+        LineStore lines = mainApp.getLineStore();
+        SpatialIndex spatialIndex = mainApp.getSpatialIndex();
+        if (!visible || lines == null || spatialIndex == null) {
+            return;
+        }
+        
+        TagHistory tagHistory = mainApp.getTagHistory();
+        LabelBatch saved = new LabelBatch(lines::tagName);
+        LabelBatch unsaved = new LabelBatch(lines::tagName);
+        spatialIndex.queryIntersecting(visibleRect, (i) -> {
+            if (i < lineLimit && lines.isTagged(i)) {
+                LabelBatch batch = tagHistory.isUnsaved(i) ? unsaved : saved;
+                batch.addIfVisible(lines, i, lines.getTagCode(i), visibleRect);
+            }
+        });
+        
+        boolean cluster = zoom < CLUSTER_ZOOM || saved.size + unsaved.size > MAX_LABELS;
+        gc.setFill(Color.RED);
+        saved.draw(gc, cluster ? CLUSTER_CELL / zoom : 0);
+        gc.setFill(Color.BLUE);
+        unsaved.draw(gc, cluster ? CLUSTER_CELL / zoom : 0);
+    }
+    
+    /**
+     * Positions and tag codes of labels of one color.
+     */
+    static class LabelBatch {
+        
+        private final IntFunction<String> tagNames;
+        private double[] xs = new double[64];
+        private double[] ys = new double[64];
+        private int[] codes = new int[64];
+        private int size;
+        
+        LabelBatch(IntFunction<String> tagNames) {
+            this.tagNames = tagNames;
+        }
+        
+        /**
+         * Add the label of a line if the middle of the line is visible.
+         */
+        void addIfVisible(LineStore lines, int i, int code, Rectangle2D visibleRect) {
+            double endX = lines.getEndX(i), endY = lines.getEndY(i);
+            double x = endX + (lines.getStartX(i) - endX) / 2.0;     // same as Point2D.midpoint
+            double y = endY + (lines.getStartY(i) - endY) / 2.0;
+            if (!visibleRect.contains(x, y)) {
+                return;
+            }
+            if (size == codes.length) {
+                xs = Arrays.copyOf(xs, size * 2);
+                ys = Arrays.copyOf(ys, size * 2);
+                codes = Arrays.copyOf(codes, size * 2);
+            }
+            xs[size] = x;
+            ys[size] = y;
+            codes[size] = code;
+            size++;
+        }
+        
+        /**
+         * Draw the labels.
+         * @param cellSize size of the square cells in which labels of the
+         *        same tag are merged, or 0 to draw every label
+         */
+        void draw(GraphicsContext gc, double cellSize) {
+            if (size == 0) {
+                return;
+            }
+            if (cellSize <= 0) {
+                String[] names = new String[0];
+                for (int k = 0; k < size; k++) {
+                    int code = codes[k];
+                    if (code >= names.length) {
+                        names = Arrays.copyOf(names, code + 1);
+                    }
+                    if (names[code] == null) {
+                        names[code] = tagNames.apply(code);
+                    }
+                    gc.fillText(names[code], xs[k], ys[k]);
+                }
+                return;
+            }
+            
+            // sum of x, sum of y and count per cell and tag
+            Map<Long, double[]> clusters = new HashMap<>();
+            for (int k = 0; k < size; k++) {
+                long cellX = (long) Math.floor(xs[k] / cellSize) & 0xFFFFF;
+                long cellY = (long) Math.floor(ys[k] / cellSize) & 0xFFFFF;
+                long key = ((long) codes[k] << 40) | (cellX << 20) | cellY;
+                double[] sum = clusters.get(key);
+                if (sum == null) {
+                    sum = new double[3];
+                    clusters.put(key, sum);
+                }
+                sum[0] += xs[k];
+                sum[1] += ys[k];
+                sum[2]++;
+            }
+            for (Map.Entry<Long, double[]> cluster : clusters.entrySet()) {
+                String name = tagNames.apply((int) (cluster.getKey() >>> 40));
+                double[] sum = cluster.getValue();
+                int count = (int) sum[2];
+                gc.fillText((count == 1) ? name : name + " (" + count + ")", sum[0] / count, sum[1] / count);
+            }
+        }
+    }
+}
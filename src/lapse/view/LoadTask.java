@@ -0,0 +1,218 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.view;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+import lapse.io.ParseListener;
+import lapse.io.TagJournal;
+import lapse.io.TraceFile;
+import lapse.io.TraceParser;
+import lapse.model.LineStore;
+import lapse.model.DrawingSequence;
+import lapse.model.SpatialIndex;
+import lapse.model.TimeIndex;
+
+/**
+ * Loads a TRACE file in the background: parses it, sorts the lines by time,
+ * builds the spatial index, applies the journal and builds the drawing
+ * sequence. Results are handed to the FX thread as soon as they are ready:
+ * the first lines of the file as a preview, then all lines, and finally all
+ * lines with the drawing sequence as the value of the task.
+ * 
+ * @author Burhanuddin
+ */
+public class LoadTask extends Task<LoadTask.Result> {
+    
+    // share of the progress bar taken by each step
+    private static final double PARSE = 0.6;
+    private static final double SORT = 0.1;
+    private static final double INDEX = 0.1;
+    private static final double JOURNAL = 0.05;
+    
+    private final File file;
+    private Consumer<Preview> onPreview;
+    private Consumer<Lines> onLinesLoaded;
+    
+    /**
+     * Constructs a task loading the specified file.
+     * @param file 
+     */
+    public LoadTask(File file) {
+        this.file = file;
+    }
+    
+    public File getFile() {
+        return file;
+    }
+    
+    /**
+     * Set the handler receiving the first lines of the file, called on the
+     * FX thread unless the task was cancelled.
+     * @param onPreview 
+     */
+    public void setOnPreview(Consumer<Preview> onPreview) {
+        this.onPreview = onPreview;
+    }
+    
+    /**
+     * Set the handler receiving all lines of the file once they are sorted,
+     * indexed and the journal is applied, called on the FX thread unless the
+     * task was cancelled. The drawing sequence is still being built then,
+     * so the lines must not be changed until the task is done. The same lines
+     * are part of the value of the task, for a handler which missed them.
+     * @param onLinesLoaded 
+     */
+    public void setOnLinesLoaded(Consumer<Lines> onLinesLoaded) {
+        this.onLinesLoaded = onLinesLoaded;
+    }
+    
+    @Override
+    protected Result call() throws Exception {
+        updateMessage("Reading " + file.getName());
+        TraceFile traceFile = TraceParser.parse(file, new ParseListener() {
+            @Override
+            public void progress(long bytesParsed, long bytesTotal) {
+                updateProgress(PARSE * bytesParsed / bytesTotal, 1);
+            }
+            
+            @Override
+            public void firstLinesParsed(LineStore lines) {
+                showPreview(lines);
+            }
+            
+            @Override
+            public boolean isCancelled() {
+                return LoadTask.this.isCancelled();
+            }
+        });
+        LineStore lines = traceFile.getLines();
+        double done = PARSE;
+        
+        checkCancelled();
+        updateMessage("Sorting " + lines.size() + " lines");
+        lines.sortByTimeStart();
+        updateProgress(done += SORT, 1);
+        
+        checkCancelled();
+        updateMessage("Indexing " + lines.size() + " lines");
+        SpatialIndex spatialIndex = new SpatialIndex(lines);
+        TimeIndex timeIndex = new TimeIndex(lines);
+        updateProgress(done += INDEX, 1);
+        
+        checkCancelled();
+        IOException journalError = null;
+        try {
+            TagJournal.replay(file, lines);
+        } catch (IOException ex) {
+            journalError = ex;
+        }
+        updateProgress(done += JOURNAL, 1);
+        
+        checkCancelled();
+        Lines loaded = new Lines(traceFile, spatialIndex, timeIndex, journalError);
+        Platform.runLater(() -> {
+            if (!isCancelled() && onLinesLoaded != null) {
+                onLinesLoaded.accept(loaded);
+            }
+        });
+        
+        updateMessage("Building drawing sequence");
+        DrawingSequence drawingSequence = new DrawingSequence(lines);
+        updateProgress(1, 1);
+        return new Result(loaded, drawingSequence);
+    }
+    
+    private void checkCancelled() {
+        if (isCancelled()) {
+            throw new CancellationException();
+        }
+    }
+    
+    /**
+     * Index the first lines and hand them to the FX thread.
+     */
+    private void showPreview(LineStore lines) {
+        if (onPreview == null || lines.isEmpty() || isCancelled()) {
+            return;
+        }
+        Preview preview = new Preview(lines, new SpatialIndex(lines));
+        Platform.runLater(() -> {
+            if (!isCancelled()) {
+                onPreview.accept(preview);
+            }
+        });
+    }
+    
+    /**
+     * First lines of the file with their spatial index.
+     */
+    public static class Preview {
+        
+        public final LineStore lines;
+        public final SpatialIndex spatialIndex;
+        
+        Preview(LineStore lines, SpatialIndex spatialIndex) {
+            this.lines = lines;
+            this.spatialIndex = spatialIndex;
+        }
+    }
+    
+    /**
+     * All lines of the file.
+     */
+    public static class Lines {
+        
+        public final TraceFile traceFile;
+        public final SpatialIndex spatialIndex;
+        public final TimeIndex timeIndex;
+        /** why the journal could not be applied, or null */
+        public final IOException journalError;
+        
+        Lines(TraceFile traceFile, SpatialIndex spatialIndex, TimeIndex timeIndex, IOException journalError) {
+            this.traceFile = traceFile;
+            this.spatialIndex = spatialIndex;
+            this.timeIndex = timeIndex;
+            this.journalError = journalError;
+        }
+    }
+    
+    /**
+     * All lines of the file with its drawing sequence.
+     */
+    public static class Result {
+        
+        public final Lines lines;
+        public final DrawingSequence drawingSequence;
+        
+        Result(Lines lines, DrawingSequence drawingSequence) {
+            this.lines = lines;
+            this.drawingSequence = drawingSequence;
+        }
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.view;
+
+import javafx.animation.AnimationTimer;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanWrapper;
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.beans.property.ReadOnlyIntegerWrapper;
+import javafx.beans.property.ReadOnlyLongProperty;
+import javafx.beans.property.ReadOnlyLongWrapper;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import lapse.model.LineStore;
+import lapse.model.SpatialIndex;
+import lapse.model.TimeIndex;
+
+/**
+ * Replays the drawing in the order and at the pace it was recorded. It is a
+ * layer of the viewport canvas which shows the lines started by the current
+ * replay time while the lines of the canvas itself are hidden. Every frame
+ * only the lines started since the last frame are stroked over the canvas,
+ * at most as many as fit in the frame budget; the rest follow in the next
+ * frames. Seeking a little forward works the same way. When the canvas is
+ * redrawn, e.g. after scrolling or seeking back, the lines come from a
+ * {@link ReplayRaster}, which rebuilds any point of the replay from its
+ * nearest keyframe.
+ * 
+ * @author Burhanuddin
+ */
+public class ReplayEngine implements ViewportCanvas.Layer {
+    
+    /** Longest pause in milliseconds of recording kept when skipping pauses. */
+    public static final long PAUSE_LIMIT = 500;
+    
+    private static final long FRAME_BUDGET = 8000000;     // nanoseconds
+    private static final double MAX_FRAME_TIME = 100;    // milliseconds
+    private static final int CHUNK = 256;
+    private static final int MAX_SEEK_LINES = 4096;
+    
+    private final ViewportCanvas canvas;
+    private final AnimationTimer timer;
+    private final ReadOnlyLongWrapper time = new ReadOnlyLongWrapper();
+    private final ReadOnlyBooleanWrapper playing = new ReadOnlyBooleanWrapper();
+    private final ReadOnlyIntegerWrapper lineCount = new ReadOnlyIntegerWrapper();
+    
+    private LineStore lines;
+    private SpatialIndex spatialIndex;
+    private TimeIndex timeIndex;
+    private ReplayRaster raster;
+    private boolean active;
+    private double position;      // replay time, with fractions of a millisecond
+    private int shownCount;       // lines shown, the first lines of the store
+    private double speed = 1;
+    private boolean skipPauses;
+    private boolean incrementalSeek = true;
+    private long lastFrame;
+    
+    /**
+     * Constructs a replay engine for the canvas. It still has to be added to
+     * the canvas as a layer.
+     * @param canvas 
+     */
+    public ReplayEngine(ViewportCanvas canvas) {
+        this.canvas = canvas;
+        this.timer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                frame(now);
+            }
+        };
+    }
+    
+    /**
+     * Start replaying a drawing, paused at its beginning.
+     * @param lines lines sorted by starting time
+     * @param spatialIndex
+     * @param timeIndex
+     * @param width width of the drawing
+     * @param height height of the drawing
+     */
+    public void start(LineStore lines, SpatialIndex spatialIndex, TimeIndex timeIndex, double width,
+            double height) {
+        stop();
+        this.lines = lines;
+        this.spatialIndex = spatialIndex;
+        this.timeIndex = timeIndex;
+        this.raster = new ReplayRaster(lines, width, height);
+        active = true;
+        shownCount = 0;
+        lineCount.set(0);
+        canvas.setLinesVisible(false);
+        seek(timeIndex.getStartTime());
+    }
+    
+    /**
+     * Stop replaying and show the whole drawing again.
+     */
+    public void stop() {
+        pause();
+        if (active) {
+            active = false;
+            raster = null;
+            canvas.setLinesVisible(true);
+        }
+    }
+    
+    /**
+     * Return whether a drawing is being replayed, playing or paused.
+     * @return active
+     */
+    public boolean isActive() {
+        return active;
+    }
+    
+    /**
+     * Continue playing, from the beginning if the end was reached.
+     */
+    public void play() {
+        if (!active) {
+            return;
+        }
+        if (shownCount == lines.size() && position >= timeIndex.getEndTime()) {
+            seek(timeIndex.getStartTime());
+        }
+        lastFrame = -1;
+        playing.set(true);
+        timer.start();
+    }
+    
+    /**
+     * Stop playing at the current time, keeping the replay active.
+     */
+    public void pause() {
+        timer.stop();
+        playing.set(false);
+    }
+    
+    /**
+     * Jump to a time of the recording. A short step forward only strokes the
+     * lines started meanwhile, otherwise the canvas is redrawn.
+     * @param newTime 
+     */
+    public void seek(long newTime) {
+        if (!active) {
+            return;
+        }
+        position = Math.max(timeIndex.getStartTime(), Math.min(timeIndex.getEndTime(), newTime));
+        int count = timeIndex.countStartedBy((long) position);
+        if (incrementalSeek && count >= shownCount && count - shownCount <= MAX_SEEK_LINES) {
+            if (count > shownCount) {
+                showLines(shownCount, count);
+            }
+        } else {
+            shownCount = count;
+            lineCount.set(count);
+            canvas.requestRedraw();
+        }
+        time.set((long) position);
+        lastFrame = -1;
+    }
+    
+    public long getStartTime() {
+        return active ? timeIndex.getStartTime() : 0;
+    }
+    
+    public long getEndTime() {
+        return active ? timeIndex.getEndTime() : 0;
+    }
+    
+    public double getSpeed() {
+        return speed;
+    }
+    
+    /**
+     * Set the playback speed.
+     * @param speed milliseconds of recording per millisecond
+     */
+    public void setSpeed(double speed) {
+        this.speed = speed;
+    }
+    
+    public boolean isIncrementalSeek() {
+        return incrementalSeek;
+    }
+    
+    /**
+     * Set whether seeking forward may only stroke the new lines. Turn it off
+     * while layers above the replay follow the replay time, as they are only
+     * updated when the canvas is redrawn.
+     * @param incrementalSeek 
+     */
+    public void setIncrementalSeek(boolean incrementalSeek) {
+        this.incrementalSeek = incrementalSeek;
+    }
+    
+    public boolean isSkipPauses() {
+        return skipPauses;
+    }
+    
+    /**
+     * Shorten pauses in the drawing longer than {@link #PAUSE_LIMIT}.
+     * @param skipPauses 
+     */
+    public void setSkipPauses(boolean skipPauses) {
+        this.skipPauses = skipPauses;
+    }
+    
+    /**
+     * Return the current replay time, in the time of the recording.
+     * @return time
+     */
+    public ReadOnlyLongProperty timeProperty() {
+        return time.getReadOnlyProperty();
+    }
+    
+    public ReadOnlyBooleanProperty playingProperty() {
+        return playing.getReadOnlyProperty();
+    }
+    
+    /**
+     * Return the number of lines shown, the first lines of the store.
+     * @return line count
+     */
+    public ReadOnlyIntegerProperty lineCountProperty() {
+        return lineCount.getReadOnlyProperty();
+    }
+    
+    /**
+     * Advance the replay by the time since the last frame and show the
+     * lines started meanwhile.
+     * @param now time of the frame in nanoseconds
+     */
+    private void frame(long now) {
+        if (lastFrame < 0) {
+            lastFrame = now;
+            return;
+        }
+        double elapsed = Math.min(MAX_FRAME_TIME, (now - lastFrame) / 1e6);
+        lastFrame = now;
+        double target = position + elapsed * speed;
+        if (skipPauses) {
+            target = skipPause(target);
+        }
+        target = Math.min(target, timeIndex.getEndTime());
+        
+        int count = timeIndex.countStartedBy((long) target);
+        long deadline = System.nanoTime() + FRAME_BUDGET;
+        while (shownCount < count && System.nanoTime() < deadline) {
+            showLines(shownCount, Math.min(count, shownCount + CHUNK));
+        }
+        if (shownCount < count) {
+            // over budget: the time follows the lines actually shown
+            position = Math.max(position, lines.getTimeStart(Math.max(0, shownCount - 1)));
+        } else {
+            position = target;
+        }
+        time.set((long) position);
+        
+        if (shownCount == lines.size() && position >= timeIndex.getEndTime()) {
+            pause();
+        }
+    }
+    
+    /**
+     * Return the target time moved ahead to shortly before the next line if
+     * nothing is being drawn until then.
+     */
+    private double skipPause(double target) {
+        int next = timeIndex.countStartedBy((long) position);
+        if (next < lines.size() && lines.getTimeStart(next) - position > PAUSE_LIMIT) {
+            boolean[] drawing = new boolean[1];
+            timeIndex.queryActive((long) position, (i) -> drawing[0] = true);
+            if (!drawing[0]) {
+                return Math.max(target, lines.getTimeStart(next) - PAUSE_LIMIT);
+            }
+        }
+        return target;
+    }
+    
+    /**
+     * Add lines to the replay and stroke them over the canvas.
+     */
+    private void showLines(int from, int to) {
+        raster.setLineCount(to);
+        canvas.drawOver((gc, visibleRect, zoom) -> strokeLines(gc, visibleRect, from, to));
+        shownCount = to;
+        lineCount.set(to);
+    }
+    
+    @Override
+    public void draw(GraphicsContext gc, Rectangle2D visibleRect, double zoom) {
+        if (!active) {
+            return;
+        }
+        if (zoom <= 2 * raster.getScale()) {
+            raster.setLineCount(shownCount);
+            raster.draw(gc, visibleRect);
+        } else {
+            // zoomed in beyond the raster, few lines are visible
+            gc.setStroke(Color.BLACK);
+            spatialIndex.queryIntersecting(visibleRect, (i) -> {
+                if (i < shownCount) {
+                    gc.strokeLine(lines.getStartX(i), lines.getStartY(i), lines.getEndX(i), lines.getEndY(i));
+                }
+            });
+        }
+    }
+    
+    /**
+     * Stroke the lines in a range of the store which cross the visible
+     * rectangle.
+     */
+    private void strokeLines(GraphicsContext gc, Rectangle2D visibleRect, int from, int to) {
+        gc.setStroke(Color.BLACK);
+        for (int i = from; i < to; i++) {
+            if (Math.max(lines.getStartX(i), lines.getEndX(i)) >= visibleRect.getMinX()
+                    && Math.min(lines.getStartX(i), lines.getEndX(i)) <= visibleRect.getMaxX()
+                    && Math.max(lines.getStartY(i), lines.getEndY(i)) >= visibleRect.getMinY()
+                    && Math.min(lines.getStartY(i), lines.getEndY(i)) <= visibleRect.getMaxY()) {
+                gc.strokeLine(lines.getStartX(i), lines.getStartY(i), lines.getEndX(i), lines.getEndY(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.view;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import lapse.model.LineStore;
+
+/**
+ * One bit per pixel raster of the first lines of a drawing, in drawing
+ * order, used to replay the drawing. Growing the raster by more lines only
+ * plots the new lines. A copy of the raster is kept every
+ * {@code interval} lines as a keyframe, so going back, or far ahead, starts
+ * from the nearest keyframe instead of from an empty raster.
+ * 
+ * @author Burhanuddin
+ */
+public class ReplayRaster {
+    
+    public static final int MAX_SIZE = 2048;
+    
+    private static final int MAX_KEYFRAMES = 48;
+    private static final int MIN_INTERVAL = 2048;
+    private static final int LINE_COLOR = 0xFF000000;
+    
+    private final LineStore lines;
+    private final double scale;
+    private final int width, height;
+    private final int wordsPerRow;
+    private final int interval;
+    private final long[][] keyframes;     // raster after interval * k lines
+    
+    private long[] bits;
+    private int lineCount;
+    private int[] pixels = new int[0];
+    
+    /**
+     * Constructs an empty raster for a drawing, as large as the drawing but
+     * at most {@link #MAX_SIZE} pixels wide and high.
+     * @param lines lines sorted by starting time
+     * @param drawingWidth
+     * @param drawingHeight 
+     */
+    public ReplayRaster(LineStore lines, double drawingWidth, double drawingHeight) {
+        this.lines = lines;
+        this.scale = Math.min(1, MAX_SIZE / Math.max(1, Math.max(drawingWidth, drawingHeight)));
+        this.width = Math.max(1, (int) Math.ceil(drawingWidth * scale));
+        this.height = Math.max(1, (int) Math.ceil(drawingHeight * scale));
+        this.wordsPerRow = (width + 63) >>> 6;
+        this.interval = Math.max(MIN_INTERVAL, (lines.size() + MAX_KEYFRAMES - 1) / MAX_KEYFRAMES);
+        this.keyframes = new long[lines.size() / interval + 1][];
+        this.bits = new long[wordsPerRow * height];
+        keyframes[0] = bits.clone();
+    }
+    
+    /**
+     * Return the number of pixels per unit of the drawing.
+     * @return scale
+     */
+    public double getScale() {
+        return scale;
+    }
+    
+    /**
+     * Return the number of lines in the raster. These are the first lines
+     * of the store.
+     * @return count
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+    
+    /**
+     * Change the raster to hold the first lines of the store.
+     * @param count number of lines
+     */
+    public void setLineCount(int count) {
+        count = Math.max(0, Math.min(lines.size(), count));
+        int k = count / interval;
+        while (keyframes[k] == null) {
+            k--;        // not reached yet
+        }
+        if (count < lineCount || k * interval > lineCount) {
+            bits = keyframes[k].clone();
+            lineCount = k * interval;
+        }
+        addLines(count);
+    }
+    
+    /**
+     * Plot the lines up to the specified count, keeping keyframes on the
+     * way.
+     */
+    private void addLines(int count) {
+        while (lineCount < count) {
+            int next = Math.min(count, (lineCount / interval + 1) * interval);
+            for (int i = lineCount; i < next; i++) {
+                plotLine(lines.getStartX(i) * scale, lines.getStartY(i) * scale,
+                        lines.getEndX(i) * scale, lines.getEndY(i) * scale);
+            }
+            lineCount = next;
+            if (lineCount % interval == 0 && keyframes[lineCount / interval] == null) {
+                keyframes[lineCount / interval] = bits.clone();
+            }
+        }
+    }
+    
+    private void plotLine(double x0, double y0, double x1, double y1) {
+        int steps = (int) Math.ceil(Math.max(Math.abs(x1 - x0), Math.abs(y1 - y0)));
+        double stepX = (steps == 0) ? 0 : (x1 - x0) / steps;
+        double stepY = (steps == 0) ? 0 : (y1 - y0) / steps;
+        for (int s = 0; s <= steps; s++) {
+            int x = (int) Math.floor(x0 + s * stepX);
+            int y = (int) Math.floor(y0 + s * stepY);
+            if (x >= 0 && x < width && y >= 0 && y < height) {
+                bits[y * wordsPerRow + (x >>> 6)] |= 1L << (x & 63);
+            }
+        }
+    }
+    
+    /**
+     * Draw the part of the raster inside the visible rectangle.
+     * @param gc graphics context in drawing coordinates
+     * @param visibleRect 
+     */
+    public void draw(GraphicsContext gc, Rectangle2D visibleRect) {
+        int minX = Math.max(0, (int) Math.floor(visibleRect.getMinX() * scale));
+        int minY = Math.max(0, (int) Math.floor(visibleRect.getMinY() * scale));
+        int maxX = Math.min(width, (int) Math.ceil(visibleRect.getMaxX() * scale));
+        int maxY = Math.min(height, (int) Math.ceil(visibleRect.getMaxY() * scale));
+        int w = maxX - minX, h = maxY - minY;
+        if (w <= 0 || h <= 0) {
+            return;
+        }
+        if (pixels.length < w * h) {
+            pixels = new int[w * h];
+        }
+        Arrays.fill(pixels, 0, w * h, 0);
+        for (int y = 0; y < h; y++) {
+            int rowBase = (minY + y) * wordsPerRow;
+            for (int x = 0; x < w; x++) {
+                int px = minX + x;
+                if ((bits[rowBase + (px >>> 6)] & (1L << (px & 63))) != 0) {
+                    pixels[y * w + x] = LINE_COLOR;
+                }
+            }
+        }
+        WritableImage image = new WritableImage(w, h);
+        image.getPixelWriter().setPixels(0, 0, w, h, PixelFormat.getIntArgbPreInstance(),
+                IntBuffer.wrap(pixels), w);
+        gc.drawImage(image, minX / scale, minY / scale, w / scale, h / scale);
+    }
+}
@@ -25,55 +25,68 @@ package lapse.view;
 
 import lapse.util.FileChooserType;
 import lapse.MainApp;
-import lapse.model.TaggedLine;
+import lapse.io.TagJournal;
+import lapse.io.TraceFile;
+import lapse.io.TraceFormatException;
+import lapse.io.TraceWriter;
+import lapse.model.DrawingSequence;
+import lapse.model.LineStore;
+import lapse.model.SequenceGeometry;
+import lapse.model.TagEdit;
+import lapse.model.TagSuggester;
+import lapse.model.TaggedArea;
+import lapse.model.TaggedPolygon;
 import lapse.model.TaggedRectangle;
-import lapse.shape.Arrow;
 import lapse.util.ExceptionFormatter;
-import lapse.util.GT;
-import lapse.util.TemporaryDataHolder;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+import javafx.beans.binding.Bindings;
 import javafx.beans.value.ObservableValue;
-import javafx.collections.FXCollections;
-import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.fxml.Initializable;
 import javafx.geometry.Bounds;
-import javafx.geometry.Point2D;
 import javafx.geometry.Rectangle2D;
 import javafx.scene.Group;
-import javafx.scene.Node;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
-import javafx.scene.canvas.Canvas;
-import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Alert;
+import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.CheckMenuItem;
+import javafx.scene.control.ComboBox;
+import javafx.scene.control.Label;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.control.RadioMenuItem;
 import javafx.scene.control.ScrollPane;
+import javafx.scene.control.Slider;
+import javafx.scene.control.Toggle;
+import javafx.scene.control.ToggleGroup;
 import javafx.scene.input.DragEvent;
 import javafx.scene.input.Dragboard;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
 import javafx.scene.input.MouseButton;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.input.ScrollEvent;
 import javafx.scene.input.TransferMode;
 import javafx.scene.layout.AnchorPane;
+import javafx.scene.layout.HBox;
 import javafx.scene.paint.Color;
-import javafx.scene.shape.Circle;
-import javafx.scene.shape.CubicCurve;
-import javafx.scene.shape.Line;
+import javafx.scene.shape.Polyline;
 import javafx.scene.shape.Rectangle;
-import javafx.scene.text.Text;
 import javafx.stage.FileChooser;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
@@ -88,17 +101,10 @@ import org.apache.logging.log4j.Logger;
 public class RootLayoutController implements Initializable {
     
     private static final Logger logger = LogManager.getLogger();
-    private static final int ID = 0;
-    private static final int X_START = 1;
-    private static final int X_END = 2;
-    private static final int Y_START = 3;
-    private static final int Y_END = 4;
-    private static final int TIME_START = 5;
-    private static final int TIME_END = 6;
-    private static final int NUMBER_OF_TOKENS = TIME_END + 1;
-    private static final int TAG = NUMBER_OF_TOKENS;
     
     private static final int GAP = 20;
+    private static final double LASSO_STEP = 3;
+    private static final double CLOSE_DISTANCE = 6;
     
     @FXML
     private AnchorPane drawingPane;
@@ -112,21 +118,63 @@ public class RootLayoutController implements Initializable {
     private CheckMenuItem drawingSequenceMenu;
     @FXML
     private CheckMenuItem lineLabelMenu;
+    @FXML
+    private CheckMenuItem journalMenu;
+    @FXML
+    private RadioMenuItem lassoSelectionMenu;
+    @FXML
+    private RadioMenuItem polygonSelectionMenu;
+    @FXML
+    private ToggleGroup selectionGroup;
+    @FXML
+    private HBox suggestionBar;
+    @FXML
+    private ProgressBar suggestionProgressBar;
+    @FXML
+    private Label suggestionStatusLabel;
+    @FXML
+    private Button acceptSuggestionsButton;
+    @FXML
+    private HBox loadStatusBar;
+    @FXML
+    private ProgressBar loadProgressBar;
+    @FXML
+    private Label loadStatusLabel;
+    @FXML
+    private HBox replayBar;
+    @FXML
+    private Button replayPlayButton;
+    @FXML
+    private ComboBox<String> replaySpeedBox;
+    @FXML
+    private CheckBox skipPausesBox;
+    @FXML
+    private Label replayTimeLabel;
+    @FXML
+    private Slider timelineSlider;
+    @FXML
+    private Label inspectorLabel;
     
     public MainApp mainApp;
     private File file;
+    private TagJournal journal;
+    private LoadTask loadTask;
+    private boolean previewShown;
+    private boolean linesLoaded;
     private Group mainGroup;
-    private Group lineLabelGroup;
-    private TemporaryDataHolder tempDataHolder;
-    private ObservableList<Node> lineLabelBackup;
-    private ObservableList<TaggedRectangle> taggedRectangleBackup;
-    private Group lineSequenceGroup;
-    private Group drawingSequenceGroup;
-    private Group arrowGroup;
-    private Group circleGroup;
-    private Canvas canvas;
+    private DrawingSequence drawingSequence;
+    private SequenceLayer sequenceLayer;
+    private ViewportCanvas canvas;
+    private LineLabelLayer lineLabelLayer;
+    private ReplayEngine replayEngine;
+    private boolean movingTimeline;
+    private LineInspector lineInspector;
+    private SelectionLayer selectionLayer;
+    private SuggestionLayer suggestionLayer;
+    private SuggestTask suggestTask;
+    private Rectangle drawingArea;
     private Rectangle rect;
-    private GraphicsContext gc;
+    private Polyline selectionPath;
     
     private int minWidth, minHeight;
     private double startX, startY;
@@ -221,156 +269,211 @@ public class RootLayoutController implements Initializable {
      * Clear all data. Called before opening new file.
      */
     private void clearData() {
+        stopReplay();
+        dismissSuggestions(null);
+        closeJournal();
         mainApp.clearData();
-        lineSequenceGroup.getChildren().clear();
-        lineLabelGroup.getChildren().clear();
-        arrowGroup.getChildren().clear();
-        circleGroup.getChildren().clear();
-        drawingSequenceGroup.getChildren().clear();
-        lineLabelBackup.clear();
-        taggedRectangleBackup.clear();
+        lineInspector.clear();
+        drawingSequence = null;
+        sequenceLayer.setSequence(SequenceGeometry.EMPTY);
+        updateUndoMenus();
     }
     
     /**
-     * Load TRACE file.
+     * Load TRACE file in the background. A load which is still running is
+     * cancelled first.
      * @param file 
      */
     private void loadFile(File file) {
         if (file != null) {
-            tempDataHolder.clearAll();
-            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-                String temp;
-                boolean foundLine = false;
-                while ((temp = reader.readLine()) != null) {
-                    if (temp.equals("<<Extracted_Lines>>")) {
-                        foundLine = true;
-                        tempDataHolder.insertTempData("beforeLines", temp);
-                        continue;
-                    }
-                    if (foundLine) {
-                        if (temp.startsWith("<<")) {
-                            tempDataHolder.insertTempData("afterLines", temp);
-                            break;
-                        }
-                        tempDataHolder.insertTempData("taggedLines", temp);
-                    } else {
-                        tempDataHolder.insertTempData("beforeLines", temp);
-                    }
+            if (loadTask != null) {
+                loadTask.cancel();
+            }
+            LoadTask task = new LoadTask(file);
+            loadTask = task;
+            linesLoaded = false;
+            task.setOnPreview((preview) -> {
+                if (task == loadTask) {
+                    showPreview(preview);
+                }
+            });
+            task.setOnLinesLoaded((lines) -> {
+                if (task == loadTask) {
+                    loadLines(task, lines);
                 }
-                while ((temp = reader.readLine()) != null) {
-                    tempDataHolder.insertTempData("afterLines", temp);
+            });
+            task.setOnSucceeded((event) -> {
+                if (task != loadTask) {
+                    return;     // replaced by a newer load
                 }
-                
-                if (tempDataHolder.isEmpty("taggedLines")) {
-                    showWarningCorruptedFile();
+                LoadTask.Result result = task.getValue();
+                loadLines(task, result.lines);
+                if (result.lines.traceFile.getLines().isEmpty()) {
+                    finishLoad(task, false);
                 } else {
-                    loadProgram();
+                    loadSequences(result);
+                    finishLoad(task, true);
                 }
-            } catch (IOException ex) {
-                logger.error(ExceptionFormatter.format(ex));
-            } catch (Exception ex) {
-                logger.error(ExceptionFormatter.format(ex));
-            }
+            });
+            task.setOnFailed((event) -> {
+                Throwable ex = task.getException();
+                if (ex instanceof TraceFormatException) {
+                    showWarningMalformedLine((TraceFormatException) ex);
+                } else {
+                    logger.error(ExceptionFormatter.format(
+                            (ex instanceof Exception) ? (Exception) ex : new Exception(ex)));
+                }
+                finishLoad(task, false);
+            });
+            task.setOnCancelled((event) -> {
+                finishLoad(task, false);
+            });
+            
+            loadProgressBar.progressProperty().bind(task.progressProperty());
+            loadStatusLabel.textProperty().bind(task.messageProperty());
+            loadStatusBar.setVisible(true);
+            loadStatusBar.setManaged(true);
+            
+            Thread thread = new Thread(task, "trace-loader");
+            thread.setDaemon(true);
+            thread.start();
         }
     }
     
     /**
-     * Load program after loading file.
+     * Called from Cancel button of the status bar. Cancel the running load.
+     * @param event 
      */
-    private void loadProgram() throws Exception {
+    @FXML
+    private void cancelLoad(ActionEvent event) {
+        if (loadTask != null) {
+            loadTask.cancel();
+        }
+    }
+    
+    /**
+     * Return true while a file is being loaded. The lines must not be
+     * changed then.
+     * @return loading
+     */
+    public boolean isLoading() {
+        return loadTask != null;
+    }
+    
+    /**
+     * Show the first lines of the file being loaded. Selecting is disabled
+     * until the whole file is there.
+     * @param preview 
+     */
+    private void showPreview(LoadTask.Preview preview) {
         clearData();
-        loadDataFromTemporaryData();
-        FXCollections.sort(mainApp.getTaggedLines());
+        mainApp.setLineStore(preview.lines);
+        mainApp.setSpatialIndex(preview.spatialIndex);
         loadCanvas();
-        generateLinesAndLabels();
-        generateDrawingSequence();
-        mainApp.getPrimaryStage().setTitle(file.getPath() + " - " + MainApp.TITLE);
+        drawingArea.setMouseTransparent(true);
+        previewShown = true;
     }
     
     /**
-     * Load data to program from temporary data holder. Clears temporary data
-     * afterwards.
+     * Load all lines of the file being loaded, unless they are loaded
+     * already. A file without lines is rejected and its load cancelled.
+     * @param task
+     * @param lines 
      */
-    private void loadDataFromTemporaryData() {
-        if (!tempDataHolder.isEmpty("beforeLines")) {
-            mainApp.getBeforeLines().addAll(tempDataHolder.retrieveTempData("beforeLines"));
+    private void loadLines(LoadTask task, LoadTask.Lines lines) {
+        if (linesLoaded) {
+            return;
         }
-        if (!tempDataHolder.isEmpty("afterLines")) {
-            mainApp.getAfterLines().addAll(tempDataHolder.retrieveTempData("afterLines"));
+        linesLoaded = true;
+        if (lines.traceFile.getLines().isEmpty()) {
+            task.cancel();
+            showWarningCorruptedFile();
+        } else {
+            loadProgram(task.getFile(), lines);
         }
-        if (!tempDataHolder.isEmpty("taggedLines")) {
-            tempDataHolder.retrieveTempData("taggedLines").stream()
-                    .map((line) -> loadLineFromString(line))
-                    .forEach((taggedLine) -> {
-                mainApp.getTaggedLines().add(taggedLine);
-            });
+    }
+    
+    /**
+     * Load program after loading file. The sequences follow later in
+     * {@link #loadSequences(LoadTask.Result)}.
+     * @param loadedFile
+     * @param lines 
+     */
+    private void loadProgram(File loadedFile, LoadTask.Lines lines) {
+        clearData();
+        file = loadedFile;
+        loadData(lines.traceFile);
+        mainApp.setSpatialIndex(lines.spatialIndex);
+        mainApp.setTimeIndex(lines.timeIndex);
+        if (lines.journalError != null) {
+            moveJournalAside(lines.journalError);
         }
+        loadCanvas();
+        updateUndoMenus();
+        previewShown = false;
+        mainApp.getPrimaryStage().setTitle(file.getPath() + " - " + MainApp.TITLE);
     }
     
     /**
-     * Generate lines and its label.
+     * Show the drawing sequence of the loaded file.
+     * @param result 
      */
-    private void generateLinesAndLabels() {
-        ObservableList<TaggedLine> taggedLines = mainApp.getTaggedLines();
-        Group lineLabelFromFile = new Group();
-        taggedLines.stream().forEach((taggedLine) -> {
-            Point2D ptA = new Point2D(taggedLine.getStartX(), taggedLine.getStartY());
-            Point2D midPoint = ptA.midpoint(taggedLine.getEndX(), taggedLine.getEndY());
-            loadSequencePoint(lineSequenceGroup, midPoint);
-            if (!taggedLine.tag.isEmpty()) {    // if tag exists
-                Text text = new Text(midPoint.getX(), midPoint.getY(), taggedLine.tag);
-                text.setFill(Color.RED);
-                lineLabelFromFile.getChildren().add(text);
-            }
-        });
-        loadSequencePoint(lineSequenceGroup, null);    // remove last curve
-        makeCurves(lineSequenceGroup);
-        lineLabelGroup.getChildren().add(lineLabelFromFile);
+    private void loadSequences(LoadTask.Result result) {
+        drawingSequence = result.drawingSequence;
+        sequenceLayer.setSequence(drawingSequence.getGeometry());
+        canvas.requestRedraw();
     }
     
     /**
-     * Generate drawing sequence from line sequence by grouping the same label.
+     * Clean up after a load has ended. A preview of a load which did not
+     * complete is removed, so that partial data can never be saved.
+     * @param task
+     * @param completed 
      */
-    private void generateDrawingSequence() {
-        ObservableList<TaggedLine> curves = FXCollections.observableArrayList();
-        String currentTag = mainApp.getTaggedLines().get(0).tag;
-        for (TaggedLine taggedLine : mainApp.getTaggedLines()) {
-            if (taggedLine.tag.equals(currentTag)) {
-                curves.add(taggedLine);
-            } else {
-                currentTag = taggedLine.tag;
-                Point2D midPoint = calculateMidPointOfLineGroup(curves);
-                loadSequencePoint(drawingSequenceGroup, midPoint);
-                curves.clear();
-                curves.add(taggedLine);
-            }
+    private void finishLoad(LoadTask task, boolean completed) {
+        if (task != loadTask) {
+            return;     // replaced by a newer load
         }
-        loadSequencePoint(drawingSequenceGroup, calculateMidPointOfLineGroup(curves));
-        loadSequencePoint(drawingSequenceGroup, null);  // remove last curve
-        makeCurves(drawingSequenceGroup);
-        addArrows(drawingSequenceGroup);
-        addCircles(drawingSequenceGroup);
+        loadTask = null;
+        loadProgressBar.progressProperty().unbind();
+        loadStatusLabel.textProperty().unbind();
+        loadStatusBar.setVisible(false);
+        loadStatusBar.setManaged(false);
+        drawingArea.setMouseTransparent(false);
+        if (!completed && previewShown) {
+            clearData();
+            loadCanvas();
+            mainApp.getPrimaryStage().setTitle(MainApp.TITLE);
+        }
+        previewShown = false;
     }
     
     /**
-     * Calculate the mid point of grouped lines.
-     * @param lines
-     * @return 
+     * Load data to program from parsed TRACE file.
+     * @param traceFile 
      */
-    private Point2D calculateMidPointOfLineGroup(ObservableList<TaggedLine> lines) {
-        ObservableList<Point2D> midPoints = FXCollections.observableArrayList();
-        lines.stream().forEach((line) -> {
-            midPoints.add(new Point2D(line.getStartX(), line.getStartY())
-                    .midpoint(line.getEndX(), line.getEndY()));
-        });
-        
-        double totalX = 0.0, totalY = 0.0;
-        for (Point2D pt : midPoints) {
-            totalX += pt.getX();
-            totalY += pt.getY();
-        }
+    private void loadData(TraceFile traceFile) {
+        mainApp.getBeforeLines().addAll(traceFile.getBeforeLines());
+        mainApp.getAfterLines().addAll(traceFile.getAfterLines());
+        mainApp.setLineStore(traceFile.getLines());
+    }
+    
+    /**
+     * Move aside a journal of the current file which could not be applied,
+     * because it does not belong to the file.
+     * @param ex why the journal could not be applied
+     */
+    private void moveJournalAside(IOException ex) {
+        logger.error(ExceptionFormatter.format(ex));
+        File journalFile = TagJournal.journalOf(file);
+        File staleFile = new File(journalFile.getPath() + ".stale");
+        journalFile.renameTo(staleFile);
         
-        return new Point2D(totalX / midPoints.size(), totalY / midPoints.size());
+        Alert alert = new Alert(Alert.AlertType.WARNING);
+        alert.setTitle("Warning");
+        alert.setHeaderText(ex.getMessage());
+        alert.setContentText("The journal was not applied and has been moved to " + staleFile.getName());
+        alert.showAndWait();
     }
     
     /**
@@ -385,75 +488,36 @@ public class RootLayoutController implements Initializable {
     }
     
     /**
-     * Load cubic curve from two mid-points.
-     * @param targetGroup
-     * @param pt 
-     */
-    private void loadSequencePoint(Group targetGroup, Point2D pt) {
-        ObservableList<Node> curves = targetGroup.getChildren();
-        if (curves.isEmpty()) {
-            CubicCurve curve = new CubicCurve();
-            curve.setStartX(pt.getX());
-            curve.setStartY(pt.getY());
-            curve.setControlX1(pt.getX());
-            curve.setControlY1(pt.getY());
-            curve.setFill(null);
-            curve.setStroke(Color.GREEN);
-            curves.add(curve);
-        } else if (pt != null) {
-            CubicCurve curveA = (CubicCurve) curves.get(curves.size() - 1);     // get last curve
-            curveA.setEndX(pt.getX());
-            curveA.setEndY(pt.getY());
-            curveA.setControlX2(pt.getX());
-            curveA.setControlY2(pt.getY());
-            
-            CubicCurve curveB = new CubicCurve();
-            curveB.setStartX(pt.getX());
-            curveB.setStartY(pt.getY());
-            curveB.setControlX1(pt.getX());
-            curveB.setControlY1(pt.getY());
-            curveB.setFill(null);
-            curveB.setStroke(Color.GREEN);
-            curves.add(curveB);
-        } else {    // if null
-            curves.remove(curves.size() - 1);   // remove last curve
-        }
-    }
-    
-    /**
-     * Load line coordinate from string.
-     * @param temp
-     * @return taggedLine
-     */
-    private TaggedLine loadLineFromString(String temp) {
-        String[] value = temp.split(",");
-        int id = Integer.parseInt(value[ID]);
-        int xStart = Integer.parseInt(value[X_START]);
-        int xEnd = Integer.parseInt(value[X_END]);
-        int yStart = Integer.parseInt(value[Y_START]);
-        int yEnd = Integer.parseInt(value[Y_END]);
-        long startTime = Long.parseLong(value[TIME_START]);
-        long endTime = Long.parseLong(value[TIME_END]);
-        
-        // add tag if there is extra token
-        String tag = (value.length == NUMBER_OF_TOKENS + 1) ? value[TAG] : "";
-        
-        Line line = new Line(xStart, yStart, xEnd, yEnd);
-        return new TaggedLine(id, line, startTime, endTime, tag);
+     * Show dialog stating the line of the file which cannot be read.
+     * @param ex 
+     */
+    private void showWarningMalformedLine(TraceFormatException ex) {
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle("Error");
+        alert.setHeaderText("The file is either corrupted or is not a TRACE file");
+        alert.setContentText(ex.getMessage());
+        alert.showAndWait();
+    }
+    
+    /**
+     * Show dialog stating that reading or writing a file failed.
+     * @param header what failed
+     * @param ex why it failed
+     */
+    private void showWarningIOError(String header, Exception ex) {
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle("Error");
+        alert.setHeaderText(header);
+        alert.setContentText(ex.getMessage());
+        alert.showAndWait();
     }
     
     /**
      * Find minimum size of canvas.
      */
     private void findMinimumCanvasSize() {
-        minWidth = 0;
-        minHeight = 0;
-        mainApp.getTaggedLines().stream().forEach((taggedLine) -> {
-            int xPref = (int) Math.max(taggedLine.getStartX(), taggedLine.getEndX());
-            int yPref = (int) Math.max(taggedLine.getStartY(), taggedLine.getEndY());
-            minWidth = Math.max(minWidth, xPref);
-            minHeight = Math.max(minHeight, yPref);
-        });
+        minWidth = mainApp.getLineStore().getMaxX();
+        minHeight = mainApp.getLineStore().getMaxY();
     }
     
     /**
@@ -461,36 +525,50 @@ public class RootLayoutController implements Initializable {
      */
     private void loadCanvas() {
         findMinimumCanvasSize();
-        canvas.setWidth(minWidth + GAP);
-        canvas.setHeight(minHeight + GAP);
+        drawingArea.setWidth(minWidth + GAP);
+        drawingArea.setHeight(minHeight + GAP);
         mainGroup.getChildren().clear();
-        mainGroup.getChildren().add(canvas);
+        mainGroup.getChildren().addAll(drawingArea, canvas, lineInspector.getHighlight());
+        lineInspector.clear();
         drawingPane.getChildren().clear();
         drawingPane.getChildren().add(mainGroup);
-        if (lineLabelMenu.selectedProperty().getValue()) {  // if lineLabelMenu is selected
-            mainGroup.getChildren().add(lineLabelGroup);
-        }
-        if (drawingSequenceMenu.selectedProperty().getValue()) {  // if drawingSequenceMenu is selected
-            mainGroup.getChildren().add(drawingSequenceGroup);
-            mainGroup.getChildren().add(arrowGroup);
-            mainGroup.getChildren().add(circleGroup);
-        }
         
-        gc = canvas.getGraphicsContext2D();
+        canvas.setDrawing(mainApp.getLineStore(), mainApp.getSpatialIndex(),
+                drawingArea.getWidth(), drawingArea.getHeight());
         
-        gc.setFill(Color.WHITE);
-        gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
-        
-        drawLines();
-        
-        canvas.setOnMousePressed((MouseEvent event) -> {
-            initSelectionRectangle(event);
+        drawingArea.setOnMousePressed((MouseEvent event) -> {
+            if (lassoSelectionMenu.isSelected()) {
+                initLasso(event);
+            } else if (!polygonSelectionMenu.isSelected()) {
+                initSelectionRectangle(event);
+            }
+        });
+        drawingArea.setOnMouseDragged((MouseEvent event) -> {
+            if (lassoSelectionMenu.isSelected()) {
+                extendLasso(event);
+            } else if (!polygonSelectionMenu.isSelected()) {
+                resizeSelectionRectangle(event);
+            }
+        });
+        drawingArea.setOnMouseReleased((MouseEvent event) -> {
+            if (lassoSelectionMenu.isSelected()) {
+                finishLasso(event);
+            } else if (polygonSelectionMenu.isSelected()) {
+                addPolygonVertex(event);
+            } else {
+                finishSelectionRectangle(event);
+            }
         });
-        canvas.setOnMouseDragged((MouseEvent event) -> {
-            resizeSelectionRectangle(event);
+        drawingArea.setOnMouseMoved((MouseEvent event) -> {
+            lineInspector.hover(event.getX(), event.getY(), canvas.getZoom());
+            if (isSelectionPathShown() && polygonSelectionMenu.isSelected()) {
+                ObservableList<Double> points = selectionPath.getPoints();
+                points.set(points.size() - 2, clampX(event.getX()));
+                points.set(points.size() - 1, clampY(event.getY()));
+            }
         });
-        canvas.setOnMouseReleased((MouseEvent event) -> {
-            finishSelectionRectangle(event);
+        drawingArea.setOnMouseExited((MouseEvent event) -> {
+            lineInspector.clear();
         });
     }
     
@@ -538,11 +616,12 @@ public class RootLayoutController implements Initializable {
      */
     private void resizeSelectionRectangle(MouseEvent event) {
         if (event.isPrimaryButtonDown()) {
+            lineInspector.clear();
             double x, y, width, height;
             if (event.getX() > startX) {
                 x = startX;
-                if (event.getX() > canvas.getWidth()) {
-                    width = canvas.getWidth() - startX - 1.0;
+                if (event.getX() > drawingArea.getWidth()) {
+                    width = drawingArea.getWidth() - startX - 1.0;
                 } else {
                     width = event.getX() - startX;
                 }
@@ -557,8 +636,8 @@ public class RootLayoutController implements Initializable {
             }
             if (event.getY() > startY) {
                 y = startY;
-                if (event.getY() > canvas.getHeight()) {
-                    height = canvas.getHeight() - startY - 1.0;
+                if (event.getY() > drawingArea.getHeight()) {
+                    height = drawingArea.getHeight() - startY - 1.0;
                 } else {
                     height = event.getY() - startY;
                 }
@@ -576,6 +655,11 @@ public class RootLayoutController implements Initializable {
             rect.setY(y);
             rect.setWidth(width);
             rect.setHeight(height);
+            
+            selectionLayer.select(new Rectangle2D(x, y, width, height));
+            int count = selectionLayer.getCount();
+            inspectorLabel.setText((count == 1) ? "1 line to tag" : count + " lines to tag");
+            inspectorLabel.setVisible(true);
         }
     }
     
@@ -585,31 +669,152 @@ public class RootLayoutController implements Initializable {
      */
     private void finishSelectionRectangle(MouseEvent event) {
         if (event.getButton() == MouseButton.PRIMARY) {
+            selectionLayer.select(null);
+            inspectorLabel.setVisible(false);
             if (rect.getWidth() != 0 && rect.getHeight() != 0) {
-                openTaggingWindow(rect);
+                openTaggingWindow(new TaggedRectangle(
+                        new Rectangle2D(rect.getX(), rect.getY(), rect.getWidth(), rect.getHeight()), ""));
+            } else if (event.isStillSincePress()) {
+                lineInspector.showRetagMenu(drawingArea, event.getScreenX(), event.getScreenY());
             }
             mainGroup.getChildren().remove(rect);
         }
     }
     
     /**
-     * Draw lines according to the line coordinate from TRACE file.
+     * Called when mouse pressed on canvas in lasso selection mode. Start a
+     * freehand path.
+     * @param event 
      */
-    private void drawLines() {
-        gc.setStroke(Color.BLACK);
-        mainApp.getTaggedLines().stream().forEach((taggedLine) -> {
-            gc.strokeLine(taggedLine.getStartX(),
-                    taggedLine.getStartY(),
-                    taggedLine.getEndX(),
-                    taggedLine.getEndY());
-        });
+    private void initLasso(MouseEvent event) {
+        if (event.isPrimaryButtonDown()) {
+            selectionPath.getPoints().setAll(clampX(event.getX()), clampY(event.getY()));
+            showSelectionPath();
+        }
+    }
+    
+    /**
+     * Called when mouse dragged on canvas in lasso selection mode. Add the
+     * mouse position to the path once it has moved a few pixels.
+     * @param event 
+     */
+    private void extendLasso(MouseEvent event) {
+        if (event.isPrimaryButtonDown() && isSelectionPathShown()) {
+            lineInspector.clear();
+            ObservableList<Double> points = selectionPath.getPoints();
+            double x = clampX(event.getX()), y = clampY(event.getY());
+            double step = LASSO_STEP / canvas.getZoom();
+            if (Math.abs(x - points.get(points.size() - 2)) >= step
+                    || Math.abs(y - points.get(points.size() - 1)) >= step) {
+                points.addAll(x, y);
+            }
+        }
+    }
+    
+    /**
+     * Called when mouse released on canvas in lasso selection mode. Close
+     * the path and open Tagging window for the enclosed area.
+     * @param event 
+     */
+    private void finishLasso(MouseEvent event) {
+        if (event.getButton() == MouseButton.PRIMARY && isSelectionPathShown()) {
+            double[] vertices = getSelectionVertices(0);
+            hideSelectionPath();
+            if (vertices.length >= 6) {
+                openTaggingWindow(new TaggedPolygon(vertices, ""));
+            } else if (event.isStillSincePress()) {
+                lineInspector.showRetagMenu(drawingArea, event.getScreenX(), event.getScreenY());
+            }
+        }
+    }
+    
+    /**
+     * Called when mouse released on canvas in polygon selection mode. A
+     * click adds a vertex, the last point of the path follows the mouse. A
+     * double click or a click on the first vertex closes the polygon and
+     * opens Tagging window for it.
+     * @param event 
+     */
+    private void addPolygonVertex(MouseEvent event) {
+        if (event.getButton() != MouseButton.PRIMARY || !event.isStillSincePress()) {
+            return;
+        }
+        double x = clampX(event.getX()), y = clampY(event.getY());
+        ObservableList<Double> points = selectionPath.getPoints();
+        if (!isSelectionPathShown()) {
+            points.setAll(x, y, x, y);
+            showSelectionPath();
+            return;
+        }
+        double closeDistance = CLOSE_DISTANCE / canvas.getZoom();
+        boolean nearFirst = points.size() >= 8 && Math.abs(x - points.get(0)) <= closeDistance
+                && Math.abs(y - points.get(1)) <= closeDistance;
+        if (event.getClickCount() == 2 || nearFirst) {
+            double[] vertices = getSelectionVertices(2);     // without the point following the mouse
+            hideSelectionPath();
+            if (vertices.length >= 6) {
+                openTaggingWindow(new TaggedPolygon(vertices, ""));
+            }
+        } else {
+            points.set(points.size() - 2, x);
+            points.set(points.size() - 1, y);
+            points.addAll(x, y);
+        }
     }
     
     /**
-     * Called on mouse released from canvas. Open Tagging window.
-     * @param rect 
+     * Return the points of the selection path without the specified number
+     * of trailing coordinates.
+     * @param trailing
+     * @return vertices as x, y pairs
      */
-    private void openTaggingWindow(Rectangle rect) {
+    private double[] getSelectionVertices(int trailing) {
+        ObservableList<Double> points = selectionPath.getPoints();
+        double[] vertices = new double[Math.max(0, points.size() - trailing)];
+        for (int i = 0; i < vertices.length; i++) {
+            vertices[i] = points.get(i);
+        }
+        return vertices;
+    }
+    
+    private boolean isSelectionPathShown() {
+        return mainGroup.getChildren().contains(selectionPath);
+    }
+    
+    private void showSelectionPath() {
+        if (!isSelectionPathShown()) {
+            mainGroup.getChildren().add(selectionPath);
+        }
+    }
+    
+    private void hideSelectionPath() {
+        mainGroup.getChildren().remove(selectionPath);
+        selectionPath.getPoints().clear();
+    }
+    
+    /**
+     * Clamp the x coordinate to the drawing area.
+     * @param x
+     * @return x
+     */
+    private double clampX(double x) {
+        return Math.max(0, Math.min(drawingArea.getWidth(), x));
+    }
+    
+    /**
+     * Clamp the y coordinate to the drawing area.
+     * @param y
+     * @return y
+     */
+    private double clampY(double y) {
+        return Math.max(0, Math.min(drawingArea.getHeight(), y));
+    }
+    
+    /**
+     * Open Tagging window for the selected area.
+     * @param area selected rectangle or polygon, its tag is not used
+     */
+    private void openTaggingWindow(TaggedArea area) {
         FXMLLoader loader = new FXMLLoader(getClass().getResource("Tagging.fxml"));
         try {
             Parent root = loader.load();
@@ -626,7 +831,7 @@ public class RootLayoutController implements Initializable {
             TaggingController controller = loader.getController();
             controller.setRootLayout(this);
             controller.setTaggingStage(stage);
-            controller.setSelectedImage(rect);
+            controller.setSelectedArea(area);
             
             stage.show();
         } catch (IOException ex) {
@@ -634,303 +839,531 @@ public class RootLayoutController implements Initializable {
         }
     }
     
-    /**
-     * Return main canvas.
-     * @return 
-     */
-    public Canvas getMainCanvas() {
-        return canvas;
-    }
-    
-    /**
-     * Return a list of line label groups.
-     * @return 
-     */
-    public ObservableList<Node> getLineLabelGroup() {
-        return lineLabelGroup.getChildren();
-    }
-    
     /**
      * Save tagging to the selected file.
      * @param event 
      */
     @FXML
     private void saveAs(ActionEvent event) {
+        if (isLoading()) {
+            return;
+        }
+        closeJournal();
         chooseFile(FileChooserType.SAVE);
         saveFile();
     }
     
     /**
-     * Save tagging to current file.
+     * Save tagging to current file, or to its journal if saving to journal
+     * is selected.
      * @param event 
      */
     @FXML
     private void save(ActionEvent event) {
-        saveFile();
+        if (isLoading()) {
+            return;
+        } else if (journalMenu.isSelected()) {
+            saveToJournal();
+        } else {
+            saveFile();
+        }
     }
     
     /**
      * Save to file with appended tagging at the end of line coordinates.
+     * The journal of the file is no longer needed afterwards.
      */
     private void saveFile() {
         if (file != null) {
-            try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(file)))) {
-                mainApp.getBeforeLines().stream().forEach((line) -> {
-                    writer.println(line);
-                });
-
-                for (TaggedLine taggedLine : mainApp.getTaggedLines()) {
-                    writer.print(taggedLine.id + "," +
-                            (int) taggedLine.getStartX() + "," +
-                            (int) taggedLine.getEndX() + "," +
-                            (int) taggedLine.getStartY() + "," +
-                            (int) taggedLine.getEndY() + "," +
-                            taggedLine.timeStart + ",");
-                    if (taggedLine.tag.isEmpty()) {
-                        found: {
-                            for (TaggedRectangle taggedRectangle : mainApp.getTaggedRectangles()) {
-                                if (isInRectangle(taggedLine.asLine(), taggedRectangle.rect)) {
-                                    writer.println(taggedLine.timeEnd + "," +
-                                            taggedRectangle.tag);
-                                    break found;
-                                }
-                            }
-                            writer.println(taggedLine.timeEnd);
-                        }
-                    } else {
-                        writer.println(taggedLine.timeEnd + "," +
-                                taggedLine.tag);
+            try {
+                TraceWriter.write(file, mainApp.getBeforeLines(), mainApp.getLineStore(), mainApp.getAfterLines());
+                closeJournal();
+                TagJournal.delete(file);
+            } catch (IOException ex) {
+                logger.error(ExceptionFormatter.format(ex));
+                return;
+            }
+            finishSave();
+        }
+    }
+    
+    /**
+     * Append the tagging since the last save to the journal of the current
+     * file. Only the changed lines are written, so the time taken does not
+     * depend on the size of the file.
+     */
+    private void saveToJournal() {
+        if (file != null) {
+            LineStore lines = mainApp.getLineStore();
+            int[] unsavedLines = mainApp.getTagHistory().getUnsavedLines();
+            Map<Integer, IntStream.Builder> linesByTag = new TreeMap<>();
+            for (int i : unsavedLines) {
+                linesByTag.computeIfAbsent(lines.getTagCode(i), (code) -> IntStream.builder()).add(i);
+            }
+            try {
+                if (journal == null) {
+                    journal = TagJournal.open(file, lines.size());
+                }
+                if (linesByTag.keySet().equals(Collections.singleton(LineStore.UNTAGGED)) && !hasTaggedLine(lines)) {
+                    journal.appendClear();      // e.g. after Clear, one short record instead of every index
+                } else {
+                    for (Map.Entry<Integer, IntStream.Builder> entry : linesByTag.entrySet()) {
+                        journal.appendTag(lines.tagName(entry.getKey()), entry.getValue().build().toArray());
                     }
                 }
-
-                mainApp.getAfterLines().stream().forEach((line) -> {
-                    writer.println(line);
-                });
-
-                loadFile(file); // load again to refresh
+                journal.commit();
             } catch (IOException ex) {
                 logger.error(ExceptionFormatter.format(ex));
+                showWarningIOError("The tagging could not be saved to the journal", ex);
+                return;
             }
+            finishSave();
         }
     }
     
     /**
-     * Check if line is in the rectangle
-     * @param line
-     * @param rect
-     * @return true if the line is in rectangle, false otherwise
+     * Return true if any line has a tag.
+     * @param lines
+     * @return hasTaggedLine
      */
-    private boolean isInRectangle(Line line, Rectangle2D rect) {
-        return line.getStartX() >= rect.getMinX() && line.getStartX() <= rect.getMaxX()
-                && line.getEndX() >= rect.getMinX() && line.getEndX() <= rect.getMaxX()
-                && line.getStartY() >= rect.getMinY() && line.getStartY() <= rect.getMaxY()
-                && line.getEndY() >= rect.getMinY() && line.getEndY() <= rect.getMaxY();
+    private static boolean hasTaggedLine(LineStore lines) {
+        for (int i = 0; i < lines.size(); i++) {
+            if (lines.isTagged(i)) {
+                return true;
+            }
+        }
+        return false;
     }
     
     /**
-     * Called from 'Undo' menu. Remove the latest rectangle and revert
-     * the canvas back to previous state.
+     * Called from 'Compact Journal' menu. Write the journal into the current
+     * file.
      * @param event 
      */
     @FXML
-    private void undo(ActionEvent event) {
-        ObservableList<Node> lineLabels = lineLabelGroup.getChildren();
-        ObservableList<TaggedRectangle> taggedRectangles = mainApp.getTaggedRectangles();
-        
-        if (lineLabels.size() > 1) {
-            Node removedNode = lineLabels.remove(lineLabels.size() - 1);   // remove last
-            TaggedRectangle removedRect = taggedRectangles.remove(taggedRectangles.size() - 1);   // remove last
-            if (removedNode != null && removedRect != null) {
-                lineLabelBackup.add(removedNode);
-                taggedRectangleBackup.add(removedRect);
+    private void compactJournal(ActionEvent event) {
+        compactJournal();
+    }
+    
+    /**
+     * Write the journal of the current file into the file and delete the
+     * journal. Called on demand and when the program exits.
+     */
+    public void compactJournal() {
+        closeJournal();
+        if (file != null) {
+            try {
+                TagJournal.compact(file);
+            } catch (TraceFormatException | IOException ex) {
+                logger.error(ExceptionFormatter.format(ex));
+                showWarningIOError("The journal could not be written into the file. "
+                        + "It is kept and applied when the file is opened again", ex);
             }
         }
     }
     
     /**
-     * Called from 'Redo' menu.
-     * @param event 
+     * Close the journal of the current file, if it is open.
      */
-    @FXML
-    private void redo(ActionEvent event) {
-        ObservableList<Node> lineLabels = lineLabelGroup.getChildren();
-        ObservableList<TaggedRectangle> taggedRectangles = mainApp.getTaggedRectangles();
-        
-        if (lineLabelBackup.size() > 0) {
-            Node removedNode = lineLabelBackup.remove(lineLabelBackup.size() - 1); // remove last
-            TaggedRectangle removedRect = taggedRectangleBackup.remove(taggedRectangleBackup.size() - 1);  // remove last
-            if (removedNode != null && removedRect != null) {
-                lineLabels.add(removedNode);
-                taggedRectangles.add(removedRect);
+    private void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException ex) {
+                logger.error(ExceptionFormatter.format(ex));
             }
+            journal = null;
         }
     }
     
     /**
-     * Clear all tags including tags from file.
-     * @param event 
+     * Turn the unsaved labels into saved labels after a successful save.
+     * The undo history is kept.
      */
-    @FXML
-    private void clearTags(ActionEvent event) {
-        mainApp.getTaggedLines().stream()
-                .filter((taggedLine) -> (!taggedLine.tag.isEmpty()))
-                .forEach((taggedLine) -> {
-            taggedLine.tag = "";
-        });
-        lineLabelGroup.getChildren().clear();
-        lineLabelGroup.getChildren().add(new Text());   // dummy
-        drawingSequenceGroup.getChildren().clear();
-        arrowGroup.getChildren().clear();
-        circleGroup.getChildren().clear();
+    private void finishSave() {
+        mainApp.getTagHistory().markSaved();
+        mainApp.getPrimaryStage().setTitle(file.getPath() + " - " + MainApp.TITLE);
     }
     
     /**
-     * Make curves from the drawing sequence.
+     * Apply a tag edit to the lines and add it to the undo history.
+     * @param edit 
+     */
+    public void execute(TagEdit edit) {
+        if (!isLoading() && mainApp.getTagHistory().execute(edit)) {
+            historyChanged(edit);
+        }
+    }
+    
+    /**
+     * Called from Suggest Tags menu. Learn from tagged TRACE files of the
+     * same template in the background and show suggested tags for the
+     * untagged lines for review.
+     * @param event 
      */
-    private void makeCurves(Group targetGroup) {
-        ObservableList<Node> curves = targetGroup.getChildren();
-        if (curves.size() < 3) {
+    @FXML
+    private void suggestTags(ActionEvent event) {
+        if (isLoading() || mainApp.getLineStore().isEmpty()) {
             return;
         }
-        double ratio = 0.1;
-        
-        CubicCurve curve1, curve2, curve3;
-        double angle12, angle23, theta12, theta23;
-        
-        curve1 = (CubicCurve) curves.get(0);
-        curve2 = (CubicCurve) curves.get(1);
-        
-        angle12 = GT.angle(curve1, curve2);
-        theta12 = (Math.PI - Math.abs(angle12)) / 2;
-        
-        GT.scale(curve1, ratio);
-        if (angle12 < 0) {
-            GT.rotate(curve1, -theta12, false);
-        } else {
-            GT.rotate(curve1, theta12, false);
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Learn from Tagged Files...");
+        fileChooser.getExtensionFilters().addAll(new FileChooser.ExtensionFilter("TRACE Files", "*.txt"),
+                new FileChooser.ExtensionFilter("All Files", "*.*"));
+        List<File> chosen = fileChooser.showOpenMultipleDialog(mainApp.getPrimaryStage());
+        if (chosen == null) {
+            return;
+        }
+        List<File> trainingFiles = new ArrayList<>(chosen);
+        trainingFiles.remove(file);     // nothing to learn from the open drawing itself
+        if (trainingFiles.isEmpty()) {
+            return;
         }
+        dismissSuggestions(null);
         
-        for (int i = 0; i < curves.size() - 2; i++) {
-            curve1 = (CubicCurve) curves.get(i);
-            curve2 = (CubicCurve) curves.get(i + 1);
-            curve3 = (CubicCurve) curves.get(i + 2);
-            
-            angle12 = GT.angle(curve1, curve2);
-            angle23 = GT.angle(curve2, curve3);
-            theta12 = (Math.PI - Math.abs(angle12)) / 2;
-            theta23 = (Math.PI - Math.abs(angle23)) / 2;
-            
-            GT.scale(curve2, ratio);
-            if (angle12 < 0) {
-                GT.rotate(curve2, theta12, true);
-            } else {
-                GT.rotate(curve2, -theta12, true);
+        SuggestTask task = new SuggestTask(trainingFiles, mainApp.getLineStore());
+        suggestTask = task;
+        task.setOnSucceeded((e) -> {
+            if (task != suggestTask || task.getLines() != mainApp.getLineStore()) {
+                return;
             }
-            
-            if (angle23 < 0) {
-                GT.rotate(curve2, -theta23, false);
-            } else {
-                GT.rotate(curve2, theta23, false);
+            finishSuggestTask();
+            TagSuggester.Suggestions suggestions = task.getValue();
+            suggestionLayer.setSuggestions(suggestions);
+            suggestionStatusLabel.setText((suggestions.size() == 1)
+                    ? "1 suggested tag" : suggestions.size() + " suggested tags");
+            acceptSuggestionsButton.setDisable(suggestions.size() == 0);
+            canvas.requestRedraw();
+        });
+        task.setOnFailed((e) -> {
+            if (task != suggestTask) {
+                return;
             }
-        }
-        
-        curve2 = (CubicCurve) curves.get(curves.size() - 2);
-        curve3 = (CubicCurve) curves.get(curves.size() - 1);
+            Throwable ex = task.getException();
+            logger.error(ExceptionFormatter.format((ex instanceof Exception) ? (Exception) ex : new Exception(ex)));
+            finishSuggestTask();
+            suggestionStatusLabel.setText("No suggestions: " + ex.getMessage());
+        });
         
-        angle23 = GT.angle(curve2, curve3);
-        theta23 = (Math.PI - Math.abs(angle23)) / 2;
+        suggestionProgressBar.progressProperty().bind(task.progressProperty());
+        suggestionStatusLabel.textProperty().bind(task.messageProperty());
+        suggestionProgressBar.setVisible(true);
+        acceptSuggestionsButton.setDisable(true);
+        suggestionBar.setVisible(true);
+        suggestionBar.setManaged(true);
         
-        GT.scale(curve3, ratio);
-        if (angle23 < 0) {
-            GT.rotate(curve3, theta23, true);
-        } else {
-            GT.rotate(curve3, -theta23, true);
+        Thread thread = new Thread(task, "tag-suggester");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /**
+     * Stop showing the progress of the suggestion task.
+     */
+    private void finishSuggestTask() {
+        suggestTask = null;
+        suggestionProgressBar.progressProperty().unbind();
+        suggestionStatusLabel.textProperty().unbind();
+        suggestionProgressBar.setVisible(false);
+    }
+    
+    /**
+     * Called from Accept All button of the suggestions. Tag the lines which
+     * are still untagged with their suggested tags, as one edit with undo.
+     * @param event 
+     */
+    @FXML
+    private void acceptSuggestions(ActionEvent event) {
+        TagSuggester.Suggestions suggestions = suggestionLayer.getSuggestions();
+        if (isLoading() || suggestions == null) {
+            return;
         }
+        int[] indices = new int[suggestions.size()];
+        int[] codes = new int[suggestions.size()];
+        int count = 0;
+        for (int k = 0; k < suggestions.size(); k++) {
+            if (suggestionLayer.find(suggestions.indices[k]) == k) {
+                indices[count] = suggestions.indices[k];
+                codes[count] = suggestions.codes[k];
+                count++;
+            }
+        }
+        dismissSuggestions(event);
+        execute(TagEdit.tag(mainApp.getLineStore(), Arrays.copyOf(indices, count), Arrays.copyOf(codes, count)));
     }
     
     /**
-     * Add arrow image on cubic curve group.
-     * @param targetGroup 
+     * Called from Dismiss button of the suggestions. Stop suggesting and
+     * remove the suggestions.
+     * @param event 
      */
-    private void addArrows(Group targetGroup) {
-        ObservableList<Node> curves = targetGroup.getChildren();
-        ObservableList<Node> arrows = arrowGroup.getChildren();
-        curves.stream().map((node) -> (CubicCurve) node).forEach((curve) -> {
-            arrows.add(new Arrow(curve, 0.5f));
-        });
+    @FXML
+    private void dismissSuggestions(ActionEvent event) {
+        if (suggestTask != null) {
+            suggestTask.cancel();
+            finishSuggestTask();
+        }
+        suggestionBar.setVisible(false);
+        suggestionBar.setManaged(false);
+        if (suggestionLayer.getSuggestions() != null) {
+            suggestionLayer.setSuggestions(null);
+            canvas.requestRedraw();
+        }
     }
     
     /**
-     * Add circles to mark the start and the end of the curve.
-     * @param targetGroup 
+     * Called from 'Undo' menu. Revert the latest tag edit.
+     * @param event 
      */
-    private void addCircles(Group targetGroup) {
-        if (targetGroup.getChildren().size() == 0) {
+    @FXML
+    private void undo(ActionEvent event) {
+        if (isLoading()) {
             return;
         }
-        
-        ObservableList<Node> curves = targetGroup.getChildren();
-        ObservableList<Node> circles = circleGroup.getChildren();
-        double radius = 10d;
-        
-        CubicCurve firstCurve = (CubicCurve) curves.get(0);
-        Circle firstCircle = new Circle(firstCurve.getStartX(), firstCurve.getStartY(), radius);
-        firstCircle.setStroke(Color.GREEN);
-        firstCircle.setFill(Color.LIGHTCORAL);
-        circles.add(firstCircle);
-        
-        curves.stream()
-                .map((node) -> (CubicCurve) node)
-                .map((curve) -> new Circle(curve.getEndX(), curve.getEndY(), radius))
-                .map((circle) -> {
-                    circle.setStroke(Color.GREEN);
-                    return circle;
-                })
-                .map((circle) -> {
-                    circle.setFill(Color.LIGHTBLUE);
-                    return circle;
-                })
-                .forEach((circle) -> {
-                    circles.add(circle);
-                });
-        
-        Circle lastCircle = (Circle) circles.get(circles.size() - 1);
-        lastCircle.setFill(Color.LIGHTGREEN);
+        TagEdit edit = mainApp.getTagHistory().undo();
+        if (edit != null) {
+            historyChanged(edit);
+        }
+    }
+    
+    /**
+     * Called from 'Redo' menu. Apply the latest reverted tag edit again.
+     * @param event 
+     */
+    @FXML
+    private void redo(ActionEvent event) {
+        if (isLoading()) {
+            return;
+        }
+        TagEdit edit = mainApp.getTagHistory().redo();
+        if (edit != null) {
+            historyChanged(edit);
+        }
+    }
+    
+    /**
+     * Clear all tags including tags from file. Can be undone.
+     * @param event 
+     */
+    @FXML
+    private void clearTags(ActionEvent event) {
+        if (isLoading()) {
+            return;
+        }
+        execute(TagEdit.clear(mainApp.getLineStore()));
+    }
+    
+    /**
+     * Show the tags and the drawing sequence after the undo history has
+     * changed.
+     * @param edit the edit applied or reverted
+     */
+    private void historyChanged(TagEdit edit) {
+        if (drawingSequence != null) {
+            drawingSequence.update(edit.getIndices());
+            sequenceLayer.setSequence(drawingSequence.getGeometry());
+        }
+        updateUndoMenus();
+        canvas.requestRedraw();
     }
     
     /**
-     * Clear backup.
+     * Only enable undo and redo menus when there is something to undo or
+     * redo.
      */
-    public void clearBackup() {
-        lineLabelBackup.clear();
-        taggedRectangleBackup.clear();
+    private void updateUndoMenus() {
+        undoMenu.setDisable(!mainApp.getTagHistory().canUndo());
+        redoMenu.setDisable(!mainApp.getTagHistory().canRedo());
     }
     
     /**
-     * Called from Animate Sequence menu. Show drawing sequence using animation.
+     * Called from Animate Sequence menu. Replay the drawing in the order it
+     * was drawn. Labels and the drawing sequence are turned off while
+     * playing, selecting until the replay is closed.
      * @param event 
      */
     @FXML
     private void animateSequence(ActionEvent event) {
-        // TODO
+        if (startReplay()) {
+            replayEngine.play();
+        }
+    }
+    
+    /**
+     * Called from Timeline menu. Show the whole drawing with the timeline
+     * of the replay, to scrub back to any time of the drawing.
+     * @param event 
+     */
+    @FXML
+    private void showTimeline(ActionEvent event) {
+        if (startReplay()) {
+            replayEngine.seek(replayEngine.getEndTime());
+        }
+    }
+    
+    /**
+     * Start a paused replay of the drawing and show its controls.
+     * @return false if there is nothing to replay
+     */
+    private boolean startReplay() {
+        if (isLoading() || mainApp.getLineStore().isEmpty()) {
+            return false;
+        }
+        lineInspector.clear();
+        drawingArea.setMouseTransparent(true);
+        suggestionLayer.setVisible(false);
+        replayBar.setVisible(true);
+        replayBar.setManaged(true);
+        replayEngine.start(mainApp.getLineStore(), mainApp.getSpatialIndex(), mainApp.getTimeIndex(),
+                drawingArea.getWidth(), drawingArea.getHeight());
+        timelineSlider.setMax(replayEngine.getEndTime() - replayEngine.getStartTime());
+        updateReplayLayers();
+        return true;
+    }
+    
+    /**
+     * Show labels and the drawing sequence up to the replay time while the
+     * replay is paused, and hide them while it is playing.
+     */
+    private void updateReplayLayers() {
+        boolean paused = !replayEngine.playingProperty().get();
+        lineLabelLayer.setVisible(paused && lineLabelMenu.isSelected());
+        sequenceLayer.setVisible(paused && drawingSequenceMenu.isSelected());
+        replayEngine.setIncrementalSeek(!paused
+                || !(lineLabelMenu.isSelected() || drawingSequenceMenu.isSelected()));
+        canvas.requestRedraw();
+    }
+    
+    /**
+     * Called from Play/Pause button of the replay.
+     * @param event 
+     */
+    @FXML
+    private void toggleReplay(ActionEvent event) {
+        if (replayEngine.playingProperty().get()) {
+            replayEngine.pause();
+        } else {
+            replayEngine.play();
+        }
+    }
+    
+    /**
+     * Called from Restart button of the replay.
+     * @param event 
+     */
+    @FXML
+    private void restartReplay(ActionEvent event) {
+        replayEngine.seek(replayEngine.getStartTime());
+        replayEngine.play();
+    }
+    
+    /**
+     * Called from Close button of the replay.
+     * @param event 
+     */
+    @FXML
+    private void closeReplay(ActionEvent event) {
+        stopReplay();
+    }
+    
+    /**
+     * Stop the replay, if any, and show the whole drawing again.
+     */
+    private void stopReplay() {
+        if (!replayEngine.isActive()) {
+            return;
+        }
+        replayEngine.stop();
+        replayBar.setVisible(false);
+        replayBar.setManaged(false);
+        drawingArea.setMouseTransparent(false);
+        lineLabelLayer.setVisible(lineLabelMenu.isSelected());
+        lineLabelLayer.setLineLimit(Integer.MAX_VALUE);
+        sequenceLayer.setVisible(drawingSequenceMenu.isSelected());
+        sequenceLayer.setLineLimit(Integer.MAX_VALUE);
+        suggestionLayer.setVisible(true);
+        canvas.requestRedraw();
+    }
+    
+    /**
+     * Return a replay time as minutes, seconds and tenths of a second since
+     * the start of the recording.
+     * @param time
+     * @return text
+     */
+    private String formatReplayTime(long time) {
+        long elapsed = time - replayEngine.getStartTime();
+        long total = replayEngine.getEndTime() - replayEngine.getStartTime();
+        return String.format("%d:%04.1f / %d:%04.1f", elapsed / 60000, (elapsed % 60000) / 1000.0,
+                total / 60000, (total % 60000) / 1000.0);
+    }
+    
+    /**
+     * Initialize the controls of the replay.
+     */
+    private void initReplay() {
+        replayEngine = new ReplayEngine(canvas);
+        replaySpeedBox.getItems().addAll("0.25x", "0.5x", "1x", "2x", "4x", "8x", "16x", "32x", "64x");
+        replaySpeedBox.setValue("1x");
+        replaySpeedBox.valueProperty().addListener((ObservableValue<? extends String> observable, String oldValue, String newValue) -> {
+            replayEngine.setSpeed(Double.parseDouble(newValue.substring(0, newValue.length() - 1)));
+        });
+        skipPausesBox.selectedProperty().addListener((ObservableValue<? extends Boolean> observable, Boolean oldValue, Boolean isSelected) -> {
+            replayEngine.setSkipPauses(isSelected);
+        });
+        replayPlayButton.textProperty().bind(
+                Bindings.when(replayEngine.playingProperty()).then("Pause").otherwise("Play"));
+        replayEngine.timeProperty().addListener((ObservableValue<? extends Number> observable, Number oldValue, Number newValue) -> {
+            replayTimeLabel.setText(formatReplayTime(newValue.longValue()));
+            movingTimeline = true;
+            timelineSlider.setValue(newValue.longValue() - replayEngine.getStartTime());
+            movingTimeline = false;
+        });
+        replayEngine.playingProperty().addListener((ObservableValue<? extends Boolean> observable, Boolean oldValue, Boolean isPlaying) -> {
+            if (replayEngine.isActive()) {
+                updateReplayLayers();
+            }
+        });
+        replayEngine.lineCountProperty().addListener((ObservableValue<? extends Number> observable, Number oldValue, Number newValue) -> {
+            if (replayEngine.isActive()) {
+                lineLabelLayer.setLineLimit(newValue.intValue());
+                sequenceLayer.setLineLimit(newValue.intValue());
+            }
+        });
+        timelineSlider.setOnMousePressed((event) -> replayEngine.pause());
+        timelineSlider.valueProperty().addListener((ObservableValue<? extends Number> observable, Number oldValue, Number newValue) -> {
+            if (!movingTimeline) {
+                replayEngine.seek(replayEngine.getStartTime() + newValue.longValue());
+            }
+        });
     }
     
     @Override
     public void initialize(URL url, ResourceBundle rb) {
         mainGroup = new Group();
-        tempDataHolder = new TemporaryDataHolder();
-        lineLabelGroup = new Group();
-        lineLabelBackup = FXCollections.observableArrayList();
-        taggedRectangleBackup = FXCollections.observableArrayList();
-        lineSequenceGroup = new Group();
-        drawingSequenceGroup = new Group();
-        arrowGroup = new Group();
-        circleGroup = new Group();
-        canvas = new Canvas();
+        sequenceLayer = new SequenceLayer();
+        drawingArea = new Rectangle();
+        drawingArea.setFill(Color.WHITE);
+        canvas = new ViewportCanvas(mainGroup, drawingPane, scrollPane);
+        initReplay();
         rect = new Rectangle();
         rect.setFill(null);
         rect.getStrokeDashArray().addAll(5.0);
         rect.setStroke(Color.RED);
+        selectionPath = new Polyline();
+        selectionPath.setFill(null);
+        selectionPath.getStrokeDashArray().addAll(5.0);
+        selectionPath.setStroke(Color.RED);
+        selectionPath.setMouseTransparent(true);
+        selectionGroup.selectedToggleProperty().addListener((ObservableValue<? extends Toggle> observable, Toggle oldValue, Toggle newValue) -> {
+            hideSelectionPath();
+        });
+        scrollPane.addEventFilter(KeyEvent.KEY_PRESSED, (KeyEvent event) -> {
+            if (event.getCode() == KeyCode.ESCAPE && isSelectionPathShown()) {
+                hideSelectionPath();
+                event.consume();
+            }
+        });
         minWidth = 0;
         minHeight = 0;
         
@@ -962,47 +1395,41 @@ public class RootLayoutController implements Initializable {
      */
     private void initCheckMenuItem() {
         lineLabelMenu.selectedProperty().addListener((ObservableValue<? extends Boolean> observable, Boolean oldValue, Boolean isSelected) -> {
-            if (isSelected) {
-                mainGroup.getChildren().add(lineLabelGroup);
-            } else {
-                mainGroup.getChildren().remove(lineLabelGroup);
+            if (replayEngine.isActive()) {
+                updateReplayLayers();
+            } else if (lineLabelLayer != null) {
+                lineLabelLayer.setVisible(isSelected);
+                canvas.requestRedraw();
             }
         });
         drawingSequenceMenu.selectedProperty().addListener((ObservableValue<? extends Boolean> observable, Boolean oldValue, Boolean isSelected) -> {
-            if (isSelected) {
-                mainGroup.getChildren().add(drawingSequenceGroup);
-                mainGroup.getChildren().add(arrowGroup);
-                mainGroup.getChildren().add(circleGroup);
+            if (replayEngine.isActive()) {
+                updateReplayLayers();
             } else {
-                mainGroup.getChildren().remove(drawingSequenceGroup);
-                mainGroup.getChildren().remove(arrowGroup);
-                mainGroup.getChildren().remove(circleGroup);
+                sequenceLayer.setVisible(isSelected);
+                canvas.requestRedraw();
             }
         });
     }
     
     /**
-     * Called by main application to make a reference back to itself. At the
-     * same time initialize backup states listener to only enable undo and redo
-     * button when there are backup states.
+     * Called by main application to make a reference back to itself.
      * @param mainApp
      */
     public void setMainApp(MainApp mainApp) {
         this.mainApp = mainApp;
-        lineLabelGroup.getChildren().addListener((ListChangeListener.Change<? extends Node> c) -> {
-            if (lineLabelGroup.getChildren().size() > 1) {  // 1 is loaded from file
-                undoMenu.setDisable(false);
-            } else {
-                undoMenu.setDisable(true);
-            }
-        });
-        lineLabelBackup.addListener((ListChangeListener.Change<? extends Node> c) -> {
-            if (lineLabelBackup.size() > 0) {
-                redoMenu.setDisable(false);
-            } else {
-                redoMenu.setDisable(true);
-            }
-        });
+        lineInspector = new LineInspector(mainApp, this::execute, inspectorLabel);
+        canvas.addLayer(replayEngine);      // under the other layers
+        lineLabelLayer = new LineLabelLayer(mainApp);
+        lineLabelLayer.setVisible(lineLabelMenu.isSelected());
+        canvas.addLayer(lineLabelLayer);
+        sequenceLayer.setVisible(drawingSequenceMenu.isSelected());
+        canvas.addLayer(sequenceLayer);
+        suggestionLayer = new SuggestionLayer(mainApp);
+        canvas.addLayer(suggestionLayer);
+        lineInspector.setSuggestionLayer(suggestionLayer);
+        selectionLayer = new SelectionLayer(mainApp, canvas);
+        canvas.addLayer(selectionLayer);
         
         initZoomHandling();
     }
@@ -0,0 +1,144 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.view;
+
+import java.util.Arrays;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import lapse.MainApp;
+import lapse.model.LineStore;
+
+/**
+ * Highlights the lines a selection rectangle would tag while it is being
+ * dragged: the untagged lines which lie entirely inside it. On every move
+ * of the rectangle only the lines entering or leaving the selection are
+ * found and drawn. Entering lines are stroked over the canvas and only the
+ * area of leaving lines is redrawn.
+ * 
+ * @author Burhanuddin
+ */
+public class SelectionLayer implements ViewportCanvas.Layer {
+    
+    private static final double LABEL_MARGIN = 100;     // screen pixels
+    
+    private final MainApp mainApp;
+    private final ViewportCanvas canvas;
+    private Rectangle2D selection;
+    private boolean[] selected = new boolean[0];
+    private int count;
+    
+    // changes of the current move
+    private int[] entered = new int[64];
+    private int enteredCount;
+    private double leftMinX, leftMinY, leftMaxX, leftMaxY;
+    
+    /**
+     * Constructs a layer for selections on the drawing of the main
+     * application.
+     * @param mainApp
+     * @param canvas canvas the layer is added to
+     */
+    public SelectionLayer(MainApp mainApp, ViewportCanvas canvas) {
+        this.mainApp = mainApp;
+        this.canvas = canvas;
+    }
+    
+    /**
+     * Return the number of selected lines.
+     * @return count
+     */
+    public int getCount() {
+        return count;
+    }
+    
+    /**
+     * Move the selection to a new rectangle and draw the changes.
+     * @param rect selection in drawing coordinates, or null to remove it
+     */
+    public void select(Rectangle2D rect) {
+        LineStore lines = mainApp.getLineStore();
+        if (selected.length != lines.size()) {
+            selected = new boolean[lines.size()];
+            selection = null;
+            count = 0;
+        }
+        enteredCount = 0;
+        leftMinX = leftMinY = Double.POSITIVE_INFINITY;
+        leftMaxX = leftMaxY = Double.NEGATIVE_INFINITY;
+        mainApp.getSpatialIndex().queryContainedChanges(selection, rect, (i) -> {
+            if (!lines.isTagged(i)) {
+                selected[i] = true;
+                count++;
+                if (enteredCount == entered.length) {
+                    entered = Arrays.copyOf(entered, enteredCount * 2);
+                }
+                entered[enteredCount++] = i;
+            }
+        }, (i) -> {
+            if (selected[i]) {
+                selected[i] = false;
+                count--;
+                leftMinX = Math.min(leftMinX, Math.min(lines.getStartX(i), lines.getEndX(i)));
+                leftMinY = Math.min(leftMinY, Math.min(lines.getStartY(i), lines.getEndY(i)));
+                leftMaxX = Math.max(leftMaxX, Math.max(lines.getStartX(i), lines.getEndX(i)));
+                leftMaxY = Math.max(leftMaxY, Math.max(lines.getStartY(i), lines.getEndY(i)));
+            }
+        });
+        selection = rect;
+        
+        if (leftMaxX >= leftMinX) {
+            // one pixel more for the width of the strokes
+            double pixel = 1 / canvas.getZoom();
+            canvas.redrawArea(new Rectangle2D(leftMinX - pixel, leftMinY - pixel,
+                    leftMaxX - leftMinX + 2 * pixel, leftMaxY - leftMinY + 2 * pixel), LABEL_MARGIN);
+        }
+        if (enteredCount > 0) {
+            canvas.drawOver((gc, visibleRect, zoom) -> {
+                gc.setStroke(Color.RED);
+                for (int k = 0; k < enteredCount; k++) {
+                    strokeLine(gc, lines, entered[k]);
+                }
+            });
+        }
+    }
+    
+    @Override
+    public void draw(GraphicsContext gc, Rectangle2D visibleRect, double zoom) {
+        if (count == 0) {
+            return;
+        }
+        LineStore lines = mainApp.getLineStore();
+        gc.setStroke(Color.RED);
+        mainApp.getSpatialIndex().queryIntersecting(visibleRect, (i) -> {
+            if (i < selected.length && selected[i]) {
+                strokeLine(gc, lines, i);
+            }
+        });
+    }
+    
+    private static void strokeLine(GraphicsContext gc, LineStore lines, int i) {
+        gc.strokeLine(lines.getStartX(i), lines.getStartY(i), lines.getEndX(i), lines.getEndY(i));
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.view;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import lapse.model.SequenceGeometry;
+
+/**
+ * Drawing sequence overlay drawn on the viewport canvas: a green curve
+ * between consecutive points, an arrow in the middle of each curve and a
+ * circle on each point. Only the parts crossing the viewport are drawn.
+ * 
+ * @author Burhanuddin
+ */
+public class SequenceLayer implements ViewportCanvas.Layer {
+    
+    private static final double RADIUS = 10;
+    private static final double[] ARROW_X = {0, 7.5, 0, -7.5};
+    private static final double[] ARROW_Y = {0, 22.5, 18.75, 22.5};
+    private static final double ARROW_SIZE = 23.75;     // farthest arrow point from its tip
+    
+    private SequenceGeometry sequence = SequenceGeometry.EMPTY;
+    private boolean visible = true;
+    private int lineLimit = Integer.MAX_VALUE;
+    private final double[] arrowX = new double[4];
+    private final double[] arrowY = new double[4];
+    
+    public SequenceGeometry getSequence() {
+        return sequence;
+    }
+    
+    public void setSequence(SequenceGeometry sequence) {
+        this.sequence = sequence;
+    }
+    
+    public boolean isVisible() {
+        return visible;
+    }
+    
+    public void setVisible(boolean visible) {
+        this.visible = visible;
+    }
+    
+    /**
+     * Only draw the points of the lines drawn among the first lines, e.g.
+     * while replaying.
+     * @param lineLimit number of first lines
+     */
+    public void setLineLimit(int lineLimit) {
+        this.lineLimit = lineLimit;
+    }
+    
+    @Override
+    public void draw(GraphicsContext gc, Rectangle2D visibleRect, double zoom) {
+        int pointCount = sequence.countPointsStartedBy(lineLimit);
+        if (!visible || sequence.getCurveCount() == 0 || pointCount == 0) {
+            return;
+        }
+        gc.setStroke(Color.GREEN);
+        gc.setLineWidth(1);
+        
+        // all visible curves in one path
+        gc.beginPath();
+        for (int c = 0; c < pointCount - 1; c++) {
+            if (isCurveVisible(c, visibleRect)) {
+                gc.moveTo(sequence.getX(c), sequence.getY(c));
+                gc.bezierCurveTo(sequence.getControlX1(c), sequence.getControlY1(c),
+                        sequence.getControlX2(c), sequence.getControlY2(c),
+                        sequence.getX(c + 1), sequence.getY(c + 1));
+            }
+        }
+        gc.stroke();
+        
+        gc.setFill(Color.LIGHTGREEN);
+        for (int c = 0; c < pointCount - 1; c++) {
+            double x = sequence.getArrowX(c), y = sequence.getArrowY(c);
+            if (isNear(x, y, ARROW_SIZE, visibleRect)) {
+                double cos = Math.cos(sequence.getArrowAngle(c));
+                double sin = Math.sin(sequence.getArrowAngle(c));
+                for (int k = 0; k < ARROW_X.length; k++) {
+                    arrowX[k] = x + ARROW_X[k] * cos - ARROW_Y[k] * sin;
+                    arrowY[k] = y + ARROW_X[k] * sin + ARROW_Y[k] * cos;
+                }
+                gc.fillPolygon(arrowX, arrowY, ARROW_X.length);
+                gc.strokePolygon(arrowX, arrowY, ARROW_X.length);
+            }
+        }
+        
+        int last = sequence.getPointCount() - 1;
+        for (int p = 0; p < pointCount; p++) {
+            double x = sequence.getX(p), y = sequence.getY(p);
+            if (isNear(x, y, RADIUS, visibleRect)) {
+                gc.setFill((p == last) ? Color.LIGHTGREEN : (p == 0) ? Color.LIGHTCORAL : Color.LIGHTBLUE);
+                gc.fillOval(x - RADIUS, y - RADIUS, RADIUS * 2, RADIUS * 2);
+                gc.strokeOval(x - RADIUS, y - RADIUS, RADIUS * 2, RADIUS * 2);
+            }
+        }
+    }
+    
+    /**
+     * Return true if the bounding box of the curve, which holds the curve,
+     * crosses the rectangle.
+     */
+    private boolean isCurveVisible(int c, Rectangle2D rect) {
+        double x0 = sequence.getX(c), x1 = sequence.getControlX1(c);
+        double x2 = sequence.getControlX2(c), x3 = sequence.getX(c + 1);
+        double y0 = sequence.getY(c), y1 = sequence.getControlY1(c);
+        double y2 = sequence.getControlY2(c), y3 = sequence.getY(c + 1);
+        return Math.min(Math.min(x0, x1), Math.min(x2, x3)) <= rect.getMaxX()
+                && Math.max(Math.max(x0, x1), Math.max(x2, x3)) >= rect.getMinX()
+                && Math.min(Math.min(y0, y1), Math.min(y2, y3)) <= rect.getMaxY()
+                && Math.max(Math.max(y0, y1), Math.max(y2, y3)) >= rect.getMinY();
+    }
+    
+    private static boolean isNear(double x, double y, double distance, Rectangle2D rect) {
+        return x + distance >= rect.getMinX() && x - distance <= rect.getMaxX()
+                && y + distance >= rect.getMinY() && y - distance <= rect.getMaxY();
+    }
+}
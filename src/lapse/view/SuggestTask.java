@@ -0,0 +1,133 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.view;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import javafx.concurrent.Task;
+import lapse.io.ParseListener;
+import lapse.io.TagJournal;
+import lapse.io.TraceParser;
+import lapse.model.LineStore;
+import lapse.model.TagSuggester;
+
+/**
+ * Suggests tags in the background: reads the tagged TRACE files, learns
+ * from their lines and suggests tags for the untagged lines of the open
+ * drawing. The lines of the open drawing are only read, apart from their
+ * tags, which may change meanwhile; the untagged lines are taken when the
+ * task is created.
+ * 
+ * @author Burhanuddin
+ */
+public class SuggestTask extends Task<TagSuggester.Suggestions> {
+    
+    // share of the progress bar taken by each step
+    private static final double READ = 0.8;
+    private static final double LEARN = 0.1;
+    
+    private final List<File> trainingFiles;
+    private final LineStore lines;
+    private final int[] untagged;
+    
+    /**
+     * Constructs a task suggesting tags for the untagged lines of a drawing.
+     * @param trainingFiles tagged TRACE files of the same template
+     * @param lines open drawing, sorted by time
+     */
+    public SuggestTask(List<File> trainingFiles, LineStore lines) {
+        this.trainingFiles = trainingFiles;
+        this.lines = lines;
+        int count = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            if (!lines.isTagged(i)) {
+                count++;
+            }
+        }
+        untagged = new int[count];
+        count = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            if (!lines.isTagged(i)) {
+                untagged[count++] = i;
+            }
+        }
+    }
+    
+    /**
+     * Return the drawing the suggestions are for.
+     * @return lines
+     */
+    public LineStore getLines() {
+        return lines;
+    }
+    
+    @Override
+    protected TagSuggester.Suggestions call() throws Exception {
+        List<LineStore> training = new ArrayList<>();
+        for (int f = 0; f < trainingFiles.size(); f++) {
+            File file = trainingFiles.get(f);
+            double done = READ * f / trainingFiles.size();
+            updateMessage("Reading " + file.getName());
+            LineStore trainingLines = TraceParser.parse(file, new ParseListener() {
+                @Override
+                public void progress(long bytesParsed, long bytesTotal) {
+                    updateProgress(done + READ * bytesParsed / bytesTotal / trainingFiles.size(), 1);
+                }
+                
+                @Override
+                public boolean isCancelled() {
+                    return SuggestTask.this.isCancelled();
+                }
+            }).getLines();
+            checkCancelled();
+            trainingLines.sortByTimeStart();
+            try {
+                TagJournal.replay(file, trainingLines);
+            } catch (IOException ex) {
+                // the saved tags are still worth learning from
+            }
+            training.add(trainingLines);
+        }
+        
+        updateMessage("Learning from " + training.size() + " files");
+        TagSuggester suggester = new TagSuggester(training);
+        training.clear();
+        updateProgress(READ + LEARN, 1);
+        
+        checkCancelled();
+        updateMessage("Suggesting tags for " + untagged.length + " lines");
+        TagSuggester.Suggestions suggestions = suggester.suggest(lines, untagged);
+        updateProgress(1, 1);
+        return suggestions;
+    }
+    
+    private void checkCancelled() {
+        if (isCancelled()) {
+            throw new CancellationException();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.view;
+
+import java.util.Arrays;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import lapse.MainApp;
+import lapse.model.LineStore;
+import lapse.model.TagSuggester;
+
+/**
+ * Suggested tags for review. Lines with a suggestion which are still
+ * untagged are drawn in orange, with the suggested tags as merged labels
+ * ending in a question mark.
+ * 
+ * @author Burhanuddin
+ */
+public class SuggestionLayer implements ViewportCanvas.Layer {
+    
+    private final MainApp mainApp;
+    private TagSuggester.Suggestions suggestions;
+    private int[] positions = new int[0];     // position in suggestions of each line, or -1
+    private boolean visible = true;
+    
+    /**
+     * Constructs a layer for suggestions on the drawing of the main
+     * application.
+     * @param mainApp 
+     */
+    public SuggestionLayer(MainApp mainApp) {
+        this.mainApp = mainApp;
+    }
+    
+    /**
+     * Return true if the suggestions are drawn.
+     * @return visibility
+     */
+    public boolean isVisible() {
+        return visible;
+    }
+    
+    /**
+     * Show or hide the suggestions without removing them.
+     * @param visible true to draw the suggestions
+     */
+    public void setVisible(boolean visible) {
+        this.visible = visible;
+    }
+    
+    /**
+     * Return the shown suggestions.
+     * @return suggestions, or null if none
+     */
+    public TagSuggester.Suggestions getSuggestions() {
+        return suggestions;
+    }
+    
+    /**
+     * Show suggestions for the lines of the current drawing.
+     * @param suggestions suggestions, or null to remove them
+     */
+    public void setSuggestions(TagSuggester.Suggestions suggestions) {
+        this.suggestions = suggestions;
+        if (suggestions == null) {
+            positions = new int[0];
+            return;
+        }
+        positions = new int[mainApp.getLineStore().size()];
+        Arrays.fill(positions, -1);
+        for (int k = 0; k < suggestions.size(); k++) {
+            positions[suggestions.indices[k]] = k;
+        }
+    }
+    
+    /**
+     * Return the position of the suggestion for a line which is still
+     * untagged.
+     * @param line line index
+     * @return position in {@link #getSuggestions()}, or -1 if none
+     */
+    public int find(int line) {
+        if (line < 0 || line >= positions.length || mainApp.getLineStore().isTagged(line)) {
+            return -1;
+        }
+        return positions[line];
+    }
+    
+    @Override
+    public void draw(GraphicsContext gc, Rectangle2D visibleRect, double zoom) {
+        if (!visible || suggestions == null) {
+            return;
+        }
+        LineStore lines = mainApp.getLineStore();
+        LineLabelLayer.LabelBatch labels = new LineLabelLayer.LabelBatch((code) -> lines.tagName(code) + "?");
+        gc.setStroke(Color.DARKORANGE);
+        mainApp.getSpatialIndex().queryIntersecting(visibleRect, (i) -> {
+            int k = find(i);
+            if (k >= 0) {
+                gc.strokeLine(lines.getStartX(i), lines.getStartY(i), lines.getEndX(i), lines.getEndY(i));
+                labels.addIfVisible(lines, i, suggestions.codes[k], visibleRect);
+            }
+        });
+        gc.setFill(Color.DARKORANGE);
+        labels.draw(gc, LineLabelLayer.CLUSTER_CELL / zoom);
+    }
+}
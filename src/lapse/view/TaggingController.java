@@ -24,26 +24,23 @@
 package lapse.view;
 
 import lapse.MainApp;
-import lapse.model.TaggedRectangle;
+import lapse.model.LineStore;
+import lapse.model.TagEdit;
+import lapse.model.TaggedArea;
+import lapse.model.TaggedPolygon;
 import java.net.URL;
 import java.util.ResourceBundle;
 import javafx.collections.ObservableList;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
-import javafx.geometry.Point2D;
 import javafx.geometry.Rectangle2D;
-import javafx.scene.Group;
-import javafx.scene.SnapshotParameters;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.ComboBox;
-import javafx.scene.image.WritableImage;
-import javafx.scene.layout.AnchorPane;
+import javafx.scene.control.Label;
+import javafx.scene.layout.Pane;
 import javafx.scene.paint.Color;
-import javafx.scene.shape.Line;
-import javafx.scene.shape.Rectangle;
-import javafx.scene.text.Text;
 import javafx.stage.Stage;
 
 /**
@@ -56,7 +53,9 @@ public class TaggingController implements Initializable {
     private static final int PADDING = 2;
     
     @FXML
-    private AnchorPane topPane;
+    private Pane previewPane;
+    @FXML
+    private Label matchLabel;
     @FXML
     private ComboBox<String> drawingType;
     @FXML
@@ -65,11 +64,10 @@ public class TaggingController implements Initializable {
     private MainApp mainApp;
     private RootLayoutController root;
     private Stage taggingStage;
-    private Canvas mainCanvas;
-    private GraphicsContext gc;
-    private WritableImage image;
+    private TaggedArea area;
     private Rectangle2D rect;
-    private int x, y;
+    private int[] matches;
+    private Canvas previewCanvas;
     
     /**
      * Called when a value from Drawing Type combo box is selected. Load all
@@ -84,50 +82,22 @@ public class TaggingController implements Initializable {
     }
     
     /**
-     * Called from Tag button. Add tagged rectangle to the drawing.
+     * Called from Tag button. Tag the untagged lines inside the area,
+     * which are highlighted in the preview.
      * @param event 
      */
     @FXML
     private void tag(ActionEvent event) {
         String selectedTag = tag.getValue();
         if (selectedTag != null &&  !selectedTag.isEmpty()) {
-            TaggedRectangle taggedArea = new TaggedRectangle(rect, selectedTag);
-            mainApp.getTaggedRectangles().add(taggedArea);
-            
-            Group lineLabel = new Group();
-            mainApp.getTaggedLines().stream()
-                    .filter((taggedLine) -> (isInRectangle(taggedLine.asLine(), rect)))
-                    .map((taggedLine) -> new Point2D(taggedLine.getStartX(), taggedLine.getStartY())
-                            .midpoint(taggedLine.getEndX(), taggedLine.getEndY()))
-                    .map((midPoint) -> new Text(midPoint.getX(), midPoint.getY(), selectedTag))
-                    .map((text) -> {
-                text.setFill(Color.BLUE);
-                return text;
-            }).forEach((text) -> {
-                lineLabel.getChildren().add(text);
-            });
-            root.getLineLabelGroup().add(lineLabel);
-            root.clearBackup();
+            root.execute(TagEdit.tag(mainApp.getLineStore(), matches, selectedTag));   // its labels are drawn by LineLabelLayer
             
             taggingStage.close();
         }
     }
     
     /**
-     * Check if line is in the rectangle
-     * @param line
-     * @param rect
-     * @return true if the line is in rectangle, false otherwise
-     */
-    private boolean isInRectangle(Line line, Rectangle2D rect) {
-        return line.getStartX() >= rect.getMinX() && line.getStartX() <= rect.getMaxX()
-                && line.getEndX() >= rect.getMinX() && line.getEndX() <= rect.getMaxX()
-                && line.getStartY() >= rect.getMinY() && line.getStartY() <= rect.getMaxY()
-                && line.getEndY() >= rect.getMinY() && line.getEndY() <= rect.getMaxY();
-    }
-    
-    /**
-     * Called from Cancel button. Cancel the tagging for current rectangle.
+     * Called from Cancel button. Cancel the tagging for current area.
      * @param event 
      */
     @FXML
@@ -159,29 +129,77 @@ public class TaggingController implements Initializable {
     }
     
     /**
-     * Called from RootLayoutController to draw the selected image from
-     * main canvas on this stage.
-     * @param rectangle 
+     * Called from RootLayoutController to draw the selected area of the
+     * drawing on this stage.
+     * @param area selected rectangle or polygon
      */
-    public void setSelectedImage(Rectangle rectangle) {
-        this.mainCanvas = root.getMainCanvas();
-        this.gc = mainCanvas.getGraphicsContext2D();
-        this.rect = new Rectangle2D(rectangle.getX(), rectangle.getY(), rectangle.getWidth(), rectangle.getHeight());
-        SnapshotParameters param = new SnapshotParameters();
-        param.setViewport(rect);
-        this.image = mainCanvas.snapshot(param, null);
+    public void setSelectedArea(TaggedArea area) {
+        this.area = area;
+        this.rect = area.getBounds();
+        matches = area.untaggedLines(mainApp.getLineStore(), mainApp.getSpatialIndex());
+        matchLabel.setText((matches.length == 1) ? "1 line to tag" : matches.length + " lines to tag");
         loadImage();
         loadDrawingType();
     }
     
     /**
-     * Draw the selected image on new canvas.
+     * Add a canvas which shows the selected area scaled to fit the dialog.
      */
     private void loadImage() {
-        Canvas canvas = new Canvas(rect.getWidth(), rect.getHeight());
-        GraphicsContext graphicsContext = canvas.getGraphicsContext2D();
-        graphicsContext.drawImage(image, 0, 0);
-        topPane.getChildren().add(canvas);
+        previewCanvas = new Canvas();
+        previewCanvas.widthProperty().bind(previewPane.widthProperty());
+        previewCanvas.heightProperty().bind(previewPane.heightProperty());
+        previewCanvas.widthProperty().addListener((observable) -> drawPreview());
+        previewCanvas.heightProperty().addListener((observable) -> drawPreview());
+        previewPane.getChildren().add(previewCanvas);
+    }
+    
+    /**
+     * Draw the lines in the selected area straight from the line store, with
+     * the lines to be tagged highlighted.
+     */
+    private void drawPreview() {
+        GraphicsContext gc = previewCanvas.getGraphicsContext2D();
+        double width = previewCanvas.getWidth(), height = previewCanvas.getHeight();
+        gc.setTransform(1, 0, 0, 1, 0, 0);
+        gc.setFill(Color.WHITE);
+        gc.fillRect(0, 0, width, height);
+        if (width <= 2 * PADDING || height <= 2 * PADDING || rect.getWidth() <= 0 || rect.getHeight() <= 0) {
+            return;
+        }
+        double scale = Math.min((width - 2 * PADDING) / rect.getWidth(), (height - 2 * PADDING) / rect.getHeight());
+        gc.translate((width - rect.getWidth() * scale) / 2, (height - rect.getHeight() * scale) / 2);
+        gc.scale(scale, scale);
+        gc.translate(-rect.getMinX(), -rect.getMinY());
+        gc.setLineWidth(1 / scale);
+        
+        LineStore lines = mainApp.getLineStore();
+        gc.save();
+        gc.beginPath();
+        gc.rect(rect.getMinX(), rect.getMinY(), rect.getWidth(), rect.getHeight());
+        gc.clip();
+        gc.setStroke(Color.BLACK);
+        mainApp.getSpatialIndex().queryIntersecting(rect, (i) -> {
+            gc.strokeLine(lines.getStartX(i), lines.getStartY(i), lines.getEndX(i), lines.getEndY(i));
+        });
+        gc.restore();
+        gc.setStroke(Color.RED);
+        for (int i : matches) {
+            gc.strokeLine(lines.getStartX(i), lines.getStartY(i), lines.getEndX(i), lines.getEndY(i));
+        }
+        if (area instanceof TaggedPolygon) {
+            TaggedPolygon polygon = (TaggedPolygon) area;
+            double[] points = polygon.getPoints();
+            double[] xPoints = new double[polygon.getVertexCount()];
+            double[] yPoints = new double[polygon.getVertexCount()];
+            for (int i = 0; i < xPoints.length; i++) {
+                xPoints[i] = points[2 * i];
+                yPoints[i] = points[2 * i + 1];
+            }
+            gc.setLineDashes(5 / scale);
+            gc.strokePolygon(xPoints, yPoints, xPoints.length);
+            gc.setLineDashes(null);
+        }
     }
     
     /**
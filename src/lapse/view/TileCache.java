@@ -0,0 +1,407 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.view;
+
+import java.nio.IntBuffer;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import lapse.model.LineStore;
+import lapse.model.SpatialIndex;
+import lapse.util.ExceptionFormatter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Pyramid of raster tiles of the drawing. Level {@code n} holds the drawing
+ * rasterized at scale {@code 2^n}, cut into square tiles of
+ * {@link #TILE_SIZE} pixels. Missing tiles are rasterized in software on
+ * background threads and handed to the FX thread as images, which are kept
+ * in a least recently used cache bounded by a byte budget.
+ * <p>
+ * Apart from the worker threads, every method must be called on the FX
+ * thread.
+ * 
+ * @author Burhanuddin
+ */
+public class TileCache {
+    
+    private static final Logger logger = LogManager.getLogger();
+    
+    public static final int TILE_SIZE = 256;
+    public static final int MIN_LEVEL = -4;
+    public static final int MAX_LEVEL = 2;
+    public static final long DEFAULT_BYTE_BUDGET = 64L * 1024 * 1024;
+    
+    private static final int LINE_COLOR = 0xFF000000;
+    
+    private final LinkedHashMap<Long, Image> tiles = new LinkedHashMap<>(64, 0.75f, true);
+    private final Set<Long> pending = ConcurrentHashMap.newKeySet();
+    private final ExecutorService executor;
+    private final Runnable onTileReady;
+    
+    private long byteBudget;
+    private long byteSize;
+    private long hits, misses, evictions;
+    
+    private LineStore lines;
+    private SpatialIndex spatialIndex;
+    private double drawingWidth, drawingHeight;
+    private volatile int generation;
+    private volatile Set<Long> wanted = ConcurrentHashMap.newKeySet();
+    
+    /**
+     * Constructs an empty cache.
+     * @param byteBudget maximum number of bytes of pixels to keep
+     * @param onTileReady called on the FX thread whenever a tile is added
+     */
+    public TileCache(long byteBudget, Runnable onTileReady) {
+        this.byteBudget = byteBudget;
+        this.onTileReady = onTileReady;
+        
+        AtomicInteger count = new AtomicInteger();
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        this.executor = Executors.newFixedThreadPool(threads, (runnable) -> {
+            Thread thread = new Thread(runnable, "tile-renderer-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
+    }
+    
+    /**
+     * Replace the drawing, dropping every tile of the previous one.
+     * @param lines
+     * @param spatialIndex
+     * @param width
+     * @param height 
+     */
+    public void setDrawing(LineStore lines, SpatialIndex spatialIndex, double width, double height) {
+        if (this.lines != null) {
+            logger.debug(getStatistics());
+        }
+        generation++;
+        this.lines = lines;
+        this.spatialIndex = spatialIndex;
+        this.drawingWidth = width;
+        this.drawingHeight = height;
+        tiles.clear();
+        pending.clear();
+        byteSize = 0;
+    }
+    
+    /**
+     * Return the level whose tiles are drawn at the given zoom. It is the
+     * smallest level at least as fine as the zoom, so tiles are only ever
+     * scaled down. A level above {@link #MAX_LEVEL} means the zoom is too
+     * large for tiles to be worth it.
+     * @param zoom
+     * @return level
+     */
+    public static int levelFor(double zoom) {
+        int level = (int) Math.ceil(Math.log(zoom) / Math.log(2) - 1e-9);
+        return Math.max(MIN_LEVEL, level);
+    }
+    
+    /**
+     * Return the width or height of the part of the drawing covered by one
+     * tile at the level.
+     * @param level
+     * @return extent in drawing coordinates
+     */
+    public static double tileExtent(int level) {
+        return TILE_SIZE / Math.scalb(1.0, level);
+    }
+    
+    /**
+     * Return the tile, counting a hit or a miss. A missing tile is queued
+     * for rendering.
+     * @param level
+     * @param column
+     * @param row
+     * @return tile, or null if it is not rendered yet
+     */
+    public Image get(int level, int column, int row) {
+        long key = key(level, column, row);
+        Image tile = tiles.get(key);
+        if (tile != null) {
+            hits++;
+        } else {
+            misses++;
+            request(level, column, row, key);
+        }
+        return tile;
+    }
+    
+    /**
+     * Return the tile if it is cached, without counting or queueing it.
+     * @param level
+     * @param column
+     * @param row
+     * @return tile, or null
+     */
+    public Image peek(int level, int column, int row) {
+        return tiles.get(key(level, column, row));
+    }
+    
+    /**
+     * Tell the cache which tiles the viewport needs. Queued tiles not in
+     * the set are skipped when their turn comes.
+     * @param keys keys built with {@link #key(int, int, int)}
+     */
+    public void setWanted(Collection<Long> keys) {
+        Set<Long> set = ConcurrentHashMap.newKeySet();
+        set.addAll(keys);
+        wanted = set;
+    }
+    
+    /**
+     * Return the key of a tile.
+     * @param level
+     * @param column
+     * @param row
+     * @return key
+     */
+    public static long key(int level, int column, int row) {
+        return ((long) (level - MIN_LEVEL) << 56) | ((long) (column & 0xFFFFFFF) << 28) | (row & 0xFFFFFFF);
+    }
+    
+    /**
+     * Set the byte budget, evicting tiles if the cache is now too large.
+     * @param byteBudget 
+     */
+    public void setByteBudget(long byteBudget) {
+        this.byteBudget = byteBudget;
+        evict();
+    }
+    
+    /**
+     * Return the byte budget, in bytes.
+     */
+    public long getByteBudget() {
+        return byteBudget;
+    }
+    
+    /**
+     * Return the size of the cached tiles, in bytes.
+     */
+    public long getByteSize() {
+        return byteSize;
+    }
+    
+    /**
+     * Return the number of cached tiles.
+     */
+    public int getTileCount() {
+        return tiles.size();
+    }
+    
+    /**
+     * Return the cumulative number of lookups that found a tile.
+     */
+    public long getHits() {
+        return hits;
+    }
+    
+    /**
+     * Return the cumulative number of lookups that found no tile.
+     */
+    public long getMisses() {
+        return misses;
+    }
+    
+    /**
+     * Return the cumulative number of evicted tiles.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+    
+    /**
+     * Return the counters as one line of text.
+     * @return statistics
+     */
+    public String getStatistics() {
+        long lookups = hits + misses;
+        return String.format("Tile cache: %d tiles, %d of %d KB, %d hits, %d misses (%.1f%% hit), %d evictions",
+                tiles.size(), byteSize / 1024, byteBudget / 1024, hits, misses,
+                (lookups == 0) ? 0.0 : 100.0 * hits / lookups, evictions);
+    }
+    
+    /**
+     * Queue a tile for rendering unless it is already queued.
+     */
+    private void request(int level, int column, int row, long key) {
+        if (lines == null || !pending.add(key)) {
+            return;
+        }
+        final int requestGeneration = generation;
+        final LineStore requestLines = lines;
+        final SpatialIndex requestIndex = spatialIndex;
+        final double width = drawingWidth, height = drawingHeight;
+        executor.execute(() -> {
+            if (requestGeneration != generation || !wanted.contains(key)) {
+                pending.remove(key);
+                return;
+            }
+            int[] pixels;
+            int tileWidth, tileHeight;
+            try {
+                double scale = Math.scalb(1.0, level);
+                tileWidth = Math.min(TILE_SIZE, (int) Math.ceil(width * scale) - column * TILE_SIZE);
+                tileHeight = Math.min(TILE_SIZE, (int) Math.ceil(height * scale) - row * TILE_SIZE);
+                if (tileWidth <= 0 || tileHeight <= 0) {
+                    pending.remove(key);
+                    return;
+                }
+                pixels = rasterize(requestLines, requestIndex, scale, column, row, tileWidth, tileHeight);
+            } catch (RuntimeException ex) {
+                pending.remove(key);
+                logger.error(ExceptionFormatter.format(ex));
+                return;
+            }
+            final int w = tileWidth, h = tileHeight;
+            Platform.runLater(() -> {
+                pending.remove(key);
+                if (requestGeneration == generation) {
+                    WritableImage tile = new WritableImage(w, h);
+                    tile.getPixelWriter().setPixels(0, 0, w, h, PixelFormat.getIntArgbPreInstance(),
+                            IntBuffer.wrap(pixels), w);
+                    put(key, tile);
+                    onTileReady.run();
+                }
+            });
+        });
+    }
+    
+    private void put(long key, Image tile) {
+        Image old = tiles.put(key, tile);
+        if (old != null) {
+            byteSize -= bytesOf(old);
+        }
+        byteSize += bytesOf(tile);
+        evict();
+    }
+    
+    /**
+     * Drop least recently used tiles until the cache fits its budget.
+     */
+    private void evict() {
+        Iterator<Map.Entry<Long, Image>> it = tiles.entrySet().iterator();
+        while (byteSize > byteBudget && it.hasNext()) {
+            byteSize -= bytesOf(it.next().getValue());
+            it.remove();
+            evictions++;
+        }
+    }
+    
+    private static long bytesOf(Image tile) {
+        return 4L * (long) tile.getWidth() * (long) tile.getHeight();
+    }
+    
+    /**
+     * Rasterize the lines crossing a tile. Lines are as wide as one unit of
+     * the drawing, but at least one pixel, like strokes on the zoomed canvas.
+     * @return premultiplied ARGB pixels, transparent where there is no line
+     */
+    private static int[] rasterize(LineStore lines, SpatialIndex index, double scale, int column, int row,
+            int width, int height) {
+        int[] pixels = new int[width * height];
+        int brush = Math.max(1, (int) Math.round(scale));
+        double originX = column * TILE_SIZE;
+        double originY = row * TILE_SIZE;
+        double margin = brush / scale;
+        
+        index.queryIntersecting(originX / scale - margin, originY / scale - margin,
+                (originX + width) / scale + margin, (originY + height) / scale + margin, (i) -> {
+            drawLine(pixels, width, height, brush,
+                    lines.getStartX(i) * scale - originX, lines.getStartY(i) * scale - originY,
+                    lines.getEndX(i) * scale - originX, lines.getEndY(i) * scale - originY);
+        });
+        return pixels;
+    }
+    
+    /**
+     * Plot a line in tile pixel coordinates, clipped to the tile grown by
+     * the brush size.
+     */
+    private static void drawLine(int[] pixels, int width, int height, int brush,
+            double x0, double y0, double x1, double y1) {
+        // Liang-Barsky clipping
+        double dx = x1 - x0, dy = y1 - y0;
+        double t0 = 0, t1 = 1;
+        double[] p = {-dx, dx, -dy, dy};
+        double[] q = {x0 + brush, width + brush - x0, y0 + brush, height + brush - y0};
+        for (int k = 0; k < 4; k++) {
+            if (p[k] == 0) {
+                if (q[k] < 0) {
+                    return;
+                }
+            } else {
+                double t = q[k] / p[k];
+                if (p[k] < 0) {
+                    t0 = Math.max(t0, t);
+                } else {
+                    t1 = Math.min(t1, t);
+                }
+            }
+        }
+        if (t0 > t1) {
+            return;
+        }
+        
+        double ax = x0 + t0 * dx, ay = y0 + t0 * dy;
+        double bx = x0 + t1 * dx, by = y0 + t1 * dy;
+        int steps = (int) Math.ceil(Math.max(Math.abs(bx - ax), Math.abs(by - ay)));
+        double stepX = (steps == 0) ? 0 : (bx - ax) / steps;
+        double stepY = (steps == 0) ? 0 : (by - ay) / steps;
+        int offset = (brush - 1) / 2;
+        for (int s = 0; s <= steps; s++) {
+            int px = (int) Math.floor(ax + s * stepX) - offset;
+            int py = (int) Math.floor(ay + s * stepY) - offset;
+            plot(pixels, width, height, px, py, brush);
+        }
+    }
+    
+    private static void plot(int[] pixels, int width, int height, int x, int y, int brush) {
+        int minX = Math.max(0, x), maxX = Math.min(width, x + brush);
+        int minY = Math.max(0, y), maxY = Math.min(height, y + brush);
+        for (int row = minY; row < maxY; row++) {
+            int base = row * width;
+            for (int col = minX; col < maxX; col++) {
+                pixels[base + col] = LINE_COLOR;
+            }
+        }
+    }
+}
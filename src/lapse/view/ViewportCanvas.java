@@ -0,0 +1,392 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.view;
+
+import java.util.ArrayList;
+import java.util.List;
+import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.Node;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.ScrollPane;
+import javafx.scene.image.Image;
+import javafx.scene.layout.Region;
+import javafx.scene.paint.Color;
+import javafx.scene.transform.Scale;
+import lapse.model.LineStore;
+import lapse.model.SpatialIndex;
+
+/**
+ * Canvas which only covers the part of the drawing visible in the scroll
+ * pane. It lives inside the zoomed group in drawing coordinates, but undoes
+ * the zoom with its own transform so that one canvas pixel is one screen
+ * pixel. On every scroll, resize or zoom it moves to the visible area and
+ * redraws the lines intersecting it, so memory does not depend on the
+ * extent of the drawing. Up to a zoom of {@code 2^TileCache.MAX_LEVEL} the
+ * lines come from pre-rendered tiles of a {@link TileCache}; beyond it they
+ * are stroked directly.
+ * 
+ * @author Burhanuddin
+ */
+public class ViewportCanvas extends Canvas {
+    
+    private final Node nodeToZoom;
+    private final Region nodeContainer;
+    private final ScrollPane scrollPane;
+    private final Scale pixelScale;
+    private final TileCache tileCache;
+    private final List<Layer> layers = new ArrayList<>();
+    
+    private LineStore lines;
+    private SpatialIndex spatialIndex;
+    private double drawingWidth, drawingHeight;
+    private Rectangle2D visibleRect;
+    private boolean redrawPending;
+    private boolean linesVisible = true;
+    
+    /**
+     * Constructs a canvas for the drawing in the zoomed node.
+     * @param nodeToZoom group holding the drawing, scaled for zooming
+     * @param nodeContainer content of the scroll pane
+     * @param scrollPane 
+     */
+    public ViewportCanvas(Node nodeToZoom, Region nodeContainer, ScrollPane scrollPane) {
+        this.nodeToZoom = nodeToZoom;
+        this.nodeContainer = nodeContainer;
+        this.scrollPane = scrollPane;
+        this.pixelScale = new Scale(1, 1, 0, 0);
+        getTransforms().add(pixelScale);
+        setMouseTransparent(true);
+        this.tileCache = new TileCache(Long.getLong("lapse.tileCacheBytes", TileCache.DEFAULT_BYTE_BUDGET),
+                this::requestRedraw);
+        
+        InvalidationListener listener = (observable) -> requestRedraw();
+        scrollPane.hvalueProperty().addListener(listener);
+        scrollPane.vvalueProperty().addListener(listener);
+        scrollPane.viewportBoundsProperty().addListener(listener);
+        nodeContainer.layoutBoundsProperty().addListener(listener);
+        nodeToZoom.scaleXProperty().addListener(listener);
+        nodeToZoom.scaleYProperty().addListener(listener);
+    }
+    
+    /**
+     * Set the drawing to show.
+     * @param lines
+     * @param spatialIndex
+     * @param width
+     * @param height 
+     */
+    public void setDrawing(LineStore lines, SpatialIndex spatialIndex, double width, double height) {
+        this.lines = lines;
+        this.spatialIndex = spatialIndex;
+        this.drawingWidth = width;
+        this.drawingHeight = height;
+        tileCache.setDrawing(lines, spatialIndex, width, height);
+        requestRedraw();
+    }
+    
+    /**
+     * Add a layer drawn over the lines, after the layers added before.
+     * @param layer 
+     */
+    public void addLayer(Layer layer) {
+        layers.add(layer);
+        requestRedraw();
+    }
+    
+    /**
+     * Show or hide the lines of the drawing, e.g. while a layer replays
+     * them. The layers are drawn either way.
+     * @param linesVisible 
+     */
+    public void setLinesVisible(boolean linesVisible) {
+        this.linesVisible = linesVisible;
+        requestRedraw();
+    }
+    
+    /**
+     * Draw a layer over the current content without redrawing the rest.
+     * Does nothing if a redraw is pending, since it draws everything anyway.
+     * @param layer 
+     */
+    public void drawOver(Layer layer) {
+        if (!redrawPending && visibleRect != null && lines != null) {
+            GraphicsContext gc = getGraphicsContext2D();
+            gc.save();
+            layer.draw(gc, visibleRect, getZoom());
+            gc.restore();
+        }
+    }
+    
+    /**
+     * Redraw on the next pulse. Several requests in the same pulse are
+     * merged into one redraw.
+     */
+    public void requestRedraw() {
+        if (!redrawPending) {
+            redrawPending = true;
+            Platform.runLater(() -> {
+                redrawPending = false;
+                redraw();
+            });
+        }
+    }
+    
+    /**
+     * Return the visible part of the drawing in drawing coordinates as of
+     * the last redraw, or null if nothing is visible.
+     * @return visibleRect
+     */
+    public Rectangle2D getVisibleRect() {
+        return visibleRect;
+    }
+    
+    /**
+     * Return the raster tile cache, e.g. to watch its counters.
+     * @return tileCache
+     */
+    public TileCache getTileCache() {
+        return tileCache;
+    }
+    
+    /**
+     * Return the current zoom level.
+     * @return scale
+     */
+    public double getZoom() {
+        return nodeToZoom.getScaleX();
+    }
+    
+    /**
+     * Move the canvas to the visible area and redraw it.
+     */
+    public void redraw() {
+        visibleRect = findVisibleRect();
+        if (visibleRect == null || lines == null) {
+            setWidth(0);
+            setHeight(0);
+            return;
+        }
+        
+        double zoom = getZoom();
+        setLayoutX(visibleRect.getMinX());
+        setLayoutY(visibleRect.getMinY());
+        pixelScale.setX(1 / zoom);
+        pixelScale.setY(1 / zoom);
+        // rounded down so that the canvas never grows the bounds of the drawing
+        setWidth(Math.floor(visibleRect.getWidth() * zoom));
+        setHeight(Math.floor(visibleRect.getHeight() * zoom));
+        
+        GraphicsContext gc = getGraphicsContext2D();
+        gc.setTransform(1, 0, 0, 1, 0, 0);
+        gc.clearRect(0, 0, getWidth(), getHeight());
+        gc.setTransform(zoom, 0, 0, zoom, -visibleRect.getMinX() * zoom, -visibleRect.getMinY() * zoom);
+        
+        drawArea(gc, visibleRect, visibleRect, zoom, true);
+    }
+    
+    /**
+     * Redraw an area of the current content without redrawing the rest,
+     * e.g. where something was removed from a layer. The area is widened to
+     * whole pixels. Layers are asked to draw a margin around it, so that
+     * labels reaching into the area are not cut off. Does nothing if a
+     * redraw is pending, since it draws everything anyway.
+     * @param area area in drawing coordinates
+     * @param margin margin around the area in screen pixels
+     */
+    public void redrawArea(Rectangle2D area, double margin) {
+        if (redrawPending || visibleRect == null || lines == null) {
+            return;
+        }
+        double zoom = getZoom();
+        double minX = Math.floor((Math.max(area.getMinX(), visibleRect.getMinX()) - visibleRect.getMinX()) * zoom);
+        double minY = Math.floor((Math.max(area.getMinY(), visibleRect.getMinY()) - visibleRect.getMinY()) * zoom);
+        double maxX = Math.ceil((Math.min(area.getMaxX(), visibleRect.getMaxX()) - visibleRect.getMinX()) * zoom);
+        double maxY = Math.ceil((Math.min(area.getMaxY(), visibleRect.getMaxY()) - visibleRect.getMinY()) * zoom);
+        if (maxX <= minX || maxY <= minY) {
+            return;
+        }
+        Rectangle2D pixels = new Rectangle2D(visibleRect.getMinX() + minX / zoom, visibleRect.getMinY() + minY / zoom,
+                (maxX - minX) / zoom, (maxY - minY) / zoom);
+        Rectangle2D layerArea = new Rectangle2D(pixels.getMinX() - margin / zoom, pixels.getMinY() - margin / zoom,
+                pixels.getWidth() + 2 * margin / zoom, pixels.getHeight() + 2 * margin / zoom);
+        
+        GraphicsContext gc = getGraphicsContext2D();
+        gc.save();
+        gc.beginPath();
+        gc.rect(pixels.getMinX(), pixels.getMinY(), pixels.getWidth(), pixels.getHeight());
+        gc.clip();
+        gc.clearRect(pixels.getMinX(), pixels.getMinY(), pixels.getWidth(), pixels.getHeight());
+        drawArea(gc, pixels, layerArea, zoom, false);
+        gc.restore();
+    }
+    
+    /**
+     * Draw the lines crossing an area and the layers over them.
+     * @param gc
+     * @param area area to draw the lines of
+     * @param layerArea area to draw the layers of
+     * @param zoom 
+     * @param whole whether the area is the whole visible rectangle
+     */
+    private void drawArea(GraphicsContext gc, Rectangle2D area, Rectangle2D layerArea, double zoom, boolean whole) {
+        if (linesVisible && TileCache.levelFor(zoom) > TileCache.MAX_LEVEL) {
+            strokeLines(gc, area.getMinX(), area.getMinY(), area.getMaxX(), area.getMaxY());
+        } else if (linesVisible) {
+            drawTiles(gc, TileCache.levelFor(zoom), area, whole);
+        }
+        for (Layer layer : layers) {
+            gc.save();
+            layer.draw(gc, layerArea, zoom);
+            gc.restore();
+        }
+    }
+    
+    /**
+     * Draw the tiles of a level in an area. A tile which is not rendered yet
+     * is queued, and meanwhile a coarser cached tile is stretched over its
+     * area, or its lines are stroked if there is none.
+     * @param gc
+     * @param level 
+     * @param area the visible rectangle, or a part of it
+     * @param wanted whether the area is all that is visible, so that only
+     *        its tiles are wanted in the cache
+     */
+    private void drawTiles(GraphicsContext gc, int level, Rectangle2D area, boolean wanted) {
+        double scale = Math.scalb(1.0, level);
+        double extent = TileCache.tileExtent(level);
+        int firstColumn = (int) Math.floor(area.getMinX() / extent);
+        int lastColumn = (int) Math.ceil(area.getMaxX() / extent) - 1;
+        int firstRow = (int) Math.floor(area.getMinY() / extent);
+        int lastRow = (int) Math.ceil(area.getMaxY() / extent) - 1;
+        
+        if (wanted) {
+            List<Long> keys = new ArrayList<>();
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    keys.add(TileCache.key(level, column, row));
+                }
+            }
+            tileCache.setWanted(keys);
+        }
+        
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                Image tile = tileCache.get(level, column, row);
+                if (tile != null) {
+                    gc.drawImage(tile, column * extent, row * extent,
+                            tile.getWidth() / scale, tile.getHeight() / scale);
+                } else if (!drawCoarserTile(gc, level, column, row)) {
+                    gc.save();
+                    gc.beginPath();
+                    gc.rect(column * extent, row * extent, extent, extent);
+                    gc.clip();
+                    strokeLines(gc, column * extent, row * extent, (column + 1) * extent, (row + 1) * extent);
+                    gc.restore();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Draw the area of a tile from the nearest coarser cached tile.
+     * @return false if no coarser tile is cached
+     */
+    private boolean drawCoarserTile(GraphicsContext gc, int level, int column, int row) {
+        double extent = TileCache.tileExtent(level);
+        for (int coarse = level - 1; coarse >= TileCache.MIN_LEVEL; coarse--) {
+            int shift = level - coarse;
+            Image parent = tileCache.peek(coarse, column >> shift, row >> shift);
+            if (parent != null) {
+                double size = TileCache.TILE_SIZE >> shift;
+                double sx = (column - ((column >> shift) << shift)) * size;
+                double sy = (row - ((row >> shift) << shift)) * size;
+                double sw = Math.min(size, parent.getWidth() - sx);
+                double sh = Math.min(size, parent.getHeight() - sy);
+                if (sw > 0 && sh > 0) {
+                    double ratio = extent / size;
+                    gc.drawImage(parent, sx, sy, sw, sh, column * extent, row * extent, sw * ratio, sh * ratio);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Stroke the lines crossing an area of the drawing.
+     */
+    private void strokeLines(GraphicsContext gc, double minX, double minY, double maxX, double maxY) {
+        gc.setStroke(Color.BLACK);
+        spatialIndex.queryIntersecting(minX, minY, maxX, maxY, (i) -> {
+            gc.strokeLine(lines.getStartX(i), lines.getStartY(i), lines.getEndX(i), lines.getEndY(i));
+        });
+    }
+    
+    /**
+     * Find the part of the drawing inside the viewport of the scroll pane.
+     * @return visible rectangle in drawing coordinates, or null if empty
+     */
+    private Rectangle2D findVisibleRect() {
+        Bounds viewport = scrollPane.getViewportBounds();
+        Bounds content = nodeContainer.getLayoutBounds();
+        double x = Math.max(0, content.getWidth() - viewport.getWidth()) * fraction(scrollPane.getHvalue(),
+                scrollPane.getHmin(), scrollPane.getHmax());
+        double y = Math.max(0, content.getHeight() - viewport.getHeight()) * fraction(scrollPane.getVvalue(),
+                scrollPane.getVmin(), scrollPane.getVmax());
+        Bounds visible = nodeToZoom.parentToLocal(new BoundingBox(x, y, viewport.getWidth(), viewport.getHeight()));
+        
+        double minX = Math.max(0, visible.getMinX());
+        double minY = Math.max(0, visible.getMinY());
+        double maxX = Math.min(drawingWidth, visible.getMaxX());
+        double maxY = Math.min(drawingHeight, visible.getMaxY());
+        if (maxX <= minX || maxY <= minY) {
+            return null;
+        }
+        return new Rectangle2D(minX, minY, maxX - minX, maxY - minY);
+    }
+    
+    private static double fraction(double value, double min, double max) {
+        return (max > min) ? (value - min) / (max - min) : 0;
+    }
+    
+    /**
+     * Something drawn over the lines, such as labels.
+     */
+    public interface Layer {
+        
+        /**
+         * Draw the visible part of the layer. The graphics context is set
+         * up in drawing coordinates.
+         * @param gc
+         * @param visibleRect visible part of the drawing
+         * @param zoom current zoom level
+         */
+        void draw(GraphicsContext gc, Rectangle2D visibleRect, double zoom);
+    }
+}
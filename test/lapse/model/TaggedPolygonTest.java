@@ -0,0 +1,84 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Burhanuddin.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package lapse.model;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests for {@link TaggedPolygon}.
+ * 
+ * @author Burhanuddin
+ */
+public class TaggedPolygonTest {
+    
+    // a square with a notch cut into its bottom edge, pointing up to (5, 2)
+    private static final double[] NOTCHED = {
+        0, 0, 10, 0, 10, 10, 7, 10, 7, 4, 5, 2, 3, 4, 3, 10, 0, 10
+    };
+    
+    @Test
+    public void segmentAcrossTheNotchIsOutside() {
+        TaggedPolygon polygon = new TaggedPolygon(NOTCHED, "tag");
+        assertFalse(polygon.containsSegment(1, 5, 9, 5));
+    }
+    
+    @Test
+    public void segmentThroughReflexVerticesIsOutside() {
+        TaggedPolygon polygon = new TaggedPolygon(NOTCHED, "tag");
+        // touches (3, 4) and (7, 4) without properly crossing an edge
+        assertFalse(polygon.containsSegment(1, 4, 9, 4));
+    }
+    
+    @Test
+    public void segmentBetweenEdgesThroughTheNotchIsOutside() {
+        TaggedPolygon polygon = new TaggedPolygon(NOTCHED, "tag");
+        // both ends lie on edges of the notch
+        assertFalse(polygon.containsSegment(6, 3, 7, 5));
+    }
+    
+    @Test
+    public void segmentAboveTheNotchIsInside() {
+        TaggedPolygon polygon = new TaggedPolygon(NOTCHED, "tag");
+        assertTrue(polygon.containsSegment(1, 1, 9, 1));
+        assertTrue(polygon.containsSegment(1, 8, 2, 2));
+    }
+    
+    @Test
+    public void segmentTouchingTheApexFromAboveIsInside() {
+        TaggedPolygon polygon = new TaggedPolygon(NOTCHED, "tag");
+        // passes the apex on the side away from the notch
+        assertTrue(polygon.containsSegment(2, 0.5, 8, 3.5));
+    }
+    
+    @Test
+    public void segmentAlongTheNotchEdgeIsOutside() {
+        TaggedPolygon polygon = new TaggedPolygon(new double[] {
+            0, 0, 10, 0, 10, 10, 6, 10, 6, 4, 4, 4, 4, 10, 0, 10
+        }, "tag");
+        // runs along the edge from (4, 4) to (6, 4) at the end of the notch
+        assertFalse(polygon.containsSegment(1, 4, 9, 4));
+    }
+}